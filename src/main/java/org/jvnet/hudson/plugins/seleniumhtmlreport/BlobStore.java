@@ -0,0 +1,300 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.annotation.Nonnull;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+/**
+ * Per-job store of report files keyed by the SHA-256 hash of their content,
+ * so files which are the same in many builds, like shared scripts, style
+ * sheets, screenshots or unchanged reports, are stored once.
+ * <p>
+ * A build only keeps a {@link ReportManifest}. Every blob counts the
+ * manifests referring to it, the count drops when a build is deleted or its
+ * reports are purged, and the blob is deleted once nothing refers to it.
+ */
+final class BlobStore {
+
+    static final String DIR_NAME = "blobs";
+
+    private static final String REFS_FILE_NAME = "refs.dat";
+
+    private static final Logger LOGGER = Logger.getLogger(BlobStore.class.getName());
+
+    private static final int MAGIC = 0x53484252;
+    private static final int VERSION = 1;
+
+    /**
+     * Blobs stored by publishes still running, per blob directory. They may
+     * not have a reference yet, but must not be deleted. Only used while
+     * holding the lock of the job.
+     */
+    private static final ConcurrentMap<String, Map<String, Integer>> PENDING = new ConcurrentHashMap<String, Map<String, Integer>>();
+
+    private BlobStore() {
+    }
+
+    static File getDir(Job<?, ?> job) {
+        return JobStorage.getFile(job, DIR_NAME);
+    }
+
+    static File getBlobFile(File blobDir, String hash) {
+        return new File(new File(blobDir, hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * Gets the gzip compressed variant of a blob, compressing it on first
+     * use. Returns {@code null} if the blob was deleted meanwhile.
+     */
+    static File getCompressedBlobFile(File blobDir, String hash) throws IOException {
+        File blob = getBlobFile(blobDir, hash);
+        File compressed = new File(blob.getPath() + ReportHttpCache.GZIP_EXTENSION);
+        if (compressed.isFile()) {
+            return compressed;
+        }
+        try {
+            ReportHttpCache.compress(blob, compressed);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        // compressed without the lock, a blob released meanwhile takes its variant along
+        synchronized (JobStorage.lockFor(blobDir.getParentFile())) {
+            if (!blob.isFile()) {
+                Files.deleteIfExists(compressed.toPath());
+                return null;
+            }
+        }
+        return compressed;
+    }
+
+    /**
+     * Stores the files of the given zip stream and writes the manifest
+     * listing them.
+     *
+     * @return the number of files whose content was already stored
+     */
+    static int store(Job<?, ?> job, InputStream zipStream, File manifestFile) throws IOException {
+        File blobDir = getDir(job);
+        Object lock = JobStorage.lockFor(blobDir.getParentFile());
+        Map<String, ReportManifest.Entry> entries = new LinkedHashMap<String, ReportManifest.Entry>();
+        Set<String> hashes = new LinkedHashSet<String>();
+        int existing = 0;
+        blobDir.mkdirs();
+        try {
+            ZipInputStream in = new ZipInputStream(zipStream);
+            byte[] buffer = new byte[64 * 1024];
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                MessageDigest md = sha256();
+                File tmp = File.createTempFile("blob", ".tmp", blobDir);
+                String hash;
+                long size = 0;
+                try {
+                    OutputStream out = new FileOutputStream(tmp);
+                    try {
+                        int n;
+                        while ((n = in.read(buffer)) > 0) {
+                            md.update(buffer, 0, n);
+                            out.write(buffer, 0, n);
+                            size += n;
+                        }
+                    } finally {
+                        out.close();
+                    }
+                    hash = Util.toHexString(md.digest());
+                    File blob = getBlobFile(blobDir, hash);
+                    synchronized (lock) {
+                        if (hashes.add(hash)) {
+                            Map<String, Integer> pending = pending(blobDir);
+                            Integer count = pending.get(hash);
+                            pending.put(hash, count == null ? 1 : count + 1);
+                        }
+                        if (blob.isFile()) {
+                            existing++;
+                        } else {
+                            blob.getParentFile().mkdirs();
+                            try {
+                                Files.move(tmp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                            } catch (FileAlreadyExistsException e) {
+                                existing++;
+                            }
+                        }
+                    }
+                } finally {
+                    Files.deleteIfExists(tmp.toPath());
+                }
+                entries.put(entry.getName(), new ReportManifest.Entry(entry.getName(), hash, size, entry.getTime()));
+            }
+            new ReportManifest(blobDir, entries).write(manifestFile);
+            synchronized (lock) {
+                Map<String, Integer> refs = readRefs(blobDir);
+                for (String hash : hashes) {
+                    Integer count = refs.get(hash);
+                    refs.put(hash, count == null ? 1 : count + 1);
+                }
+                writeRefs(blobDir, refs);
+            }
+        } finally {
+            synchronized (lock) {
+                Map<String, Integer> pending = pending(blobDir);
+                for (String hash : hashes) {
+                    Integer count = pending.get(hash);
+                    if (count == null || count <= 1) {
+                        pending.remove(hash);
+                    } else {
+                        pending.put(hash, count - 1);
+                    }
+                }
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Drops the references of the given manifest and deletes it, blobs no
+     * longer referred to by any build are deleted.
+     */
+    static void release(Job<?, ?> job, File manifestFile) throws IOException {
+        if (!manifestFile.isFile()) {
+            return;
+        }
+        File blobDir = getDir(job);
+        ReportManifest manifest = ReportManifest.read(manifestFile, blobDir);
+        Set<String> hashes = new LinkedHashSet<String>();
+        for (ReportManifest.Entry e : manifest.getEntries()) {
+            hashes.add(e.hash);
+        }
+        synchronized (JobStorage.lockFor(blobDir.getParentFile())) {
+            Map<String, Integer> refs = readRefs(blobDir);
+            Map<String, Integer> pending = pending(blobDir);
+            for (String hash : hashes) {
+                Integer count = refs.get(hash);
+                if (count != null && count > 1) {
+                    refs.put(hash, count - 1);
+                    continue;
+                }
+                refs.remove(hash);
+                if (!pending.containsKey(hash)) {
+                    File blob = getBlobFile(blobDir, hash);
+                    Files.deleteIfExists(blob.toPath());
+                    Files.deleteIfExists(new File(blob.getPath() + ReportHttpCache.GZIP_EXTENSION).toPath());
+                }
+            }
+            writeRefs(blobDir, refs);
+            Files.deleteIfExists(manifestFile.toPath());
+        }
+    }
+
+    private static Map<String, Integer> pending(File blobDir) {
+        String key = blobDir.getAbsolutePath();
+        Map<String, Integer> pending = PENDING.get(key);
+        if (pending == null) {
+            Map<String, Integer> newPending = new HashMap<String, Integer>();
+            pending = PENDING.putIfAbsent(key, newPending);
+            if (pending == null) {
+                pending = newPending;
+            }
+        }
+        return pending;
+    }
+
+    private static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Map<String, Integer> readRefs(File blobDir) throws IOException {
+        Map<String, Integer> refs = new HashMap<String, Integer>();
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(blobDir, REFS_FILE_NAME))));
+        } catch (FileNotFoundException e) {
+            return refs;
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown reference count format in " + blobDir);
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                refs.put(in.readUTF(), in.readInt());
+            }
+        } finally {
+            in.close();
+        }
+        return refs;
+    }
+
+    private static void writeRefs(File blobDir, Map<String, Integer> refs) throws IOException {
+        File file = new File(blobDir, REFS_FILE_NAME);
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(refs.size());
+            for (Map.Entry<String, Integer> e : refs.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Drops the references of a build when it is deleted.
+     */
+    @Extension
+    @SuppressWarnings("rawtypes")
+    public static class ReleaseOnDelete extends RunListener<Run> {
+        @Override
+        public void onDeleted(@Nonnull Run run) {
+            for (File shardRoot : ReportShards.getRoots(run.getRootDir())) {
+                File manifest = ReportManifest.forReportsDir(new File(shardRoot, ReportRetention.REPORTS_DIR_NAME));
+                try {
+                    release(run.getParent(), manifest);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Unable to release the selenium reports of " + run, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.Serializable;
+
+/**
+ * A failed command row of a selenium report.
+ */
+public final class CommandFailure implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String resultFileName;
+    private final String testName;
+    private final String command;
+    private final String target;
+    private final String message;
+
+    public CommandFailure(String resultFileName, String testName, String command, String target, String message) {
+        super();
+        this.resultFileName = resultFileName;
+        this.testName = testName;
+        this.command = command;
+        this.target = target;
+        this.message = message;
+    }
+
+    public String getResultFileName() {
+        return this.resultFileName;
+    }
+
+    public String getTestName() {
+        return this.testName;
+    }
+
+    public String getCommand() {
+        return this.command;
+    }
+
+    public String getTarget() {
+        return this.target;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    CommandFailure withResultFileName(String resultFileName) {
+        return new CommandFailure(resultFileName, this.testName, this.command, this.target, this.message);
+    }
+}
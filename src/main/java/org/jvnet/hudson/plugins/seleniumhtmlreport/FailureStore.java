@@ -0,0 +1,117 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the failed command rows of all result files of a build in one file,
+ * so they can be listed with a single sequential read instead of opening every
+ * report. Like {@link TestResultStore} it writes an interned string table
+ * followed by the rows as indexes into that table.
+ */
+final class FailureStore {
+
+    static final String FILE_NAME = "seleniumFailures.dat";
+
+    private static final int MAGIC = 0x53484631;
+    private static final int VERSION = 1;
+
+    /** Keeps every string within the limits of {@link DataOutputStream#writeUTF(String)}. */
+    private static final int MAX_STRING_LENGTH = 4096;
+
+    private FailureStore() {
+    }
+
+    static File getFailuresFile(File buildRootDir) {
+        return new File(buildRootDir, FILE_NAME);
+    }
+
+    static void write(File file, List<CommandFailure> failures) throws IOException {
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        int[] rows = new int[failures.size() * 5];
+        int i = 0;
+        for (CommandFailure f : failures) {
+            rows[i++] = intern(f.getResultFileName(), index, strings);
+            rows[i++] = intern(f.getTestName(), index, strings);
+            rows[i++] = intern(f.getCommand(), index, strings);
+            rows[i++] = intern(f.getTarget(), index, strings);
+            rows[i++] = intern(f.getMessage(), index, strings);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(failures.size());
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                out.writeUTF(s);
+            }
+            for (int row : rows) {
+                out.writeInt(row);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads all failures of the build, an empty list if none were recorded.
+     */
+    static List<CommandFailure> read(File file) throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return new ArrayList<CommandFailure>();
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported failure store " + file);
+            }
+            int n = in.readInt();
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            List<CommandFailure> failures = new ArrayList<CommandFailure>(n);
+            for (int i = 0; i < n; i++) {
+                failures.add(new CommandFailure(strings[in.readInt()], strings[in.readInt()], strings[in.readInt()],
+                        strings[in.readInt()], strings[in.readInt()]));
+            }
+            return failures;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int intern(String s, Map<String, Integer> index, List<String> strings) {
+        if (s == null) {
+            s = "";
+        } else if (s.length() > MAX_STRING_LENGTH) {
+            s = s.substring(0, MAX_STRING_LENGTH);
+        }
+        Integer i = index.get(s);
+        if (i == null) {
+            i = strings.size();
+            index.put(s, i);
+            strings.add(s);
+        }
+        return i;
+    }
+}
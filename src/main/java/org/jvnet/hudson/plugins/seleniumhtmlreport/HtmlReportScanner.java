@@ -0,0 +1,438 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming scanner for the table rows and cells of selenium html reports.
+ * <p>
+ * Selenium reports are often not well-formed XML, so instead of an XML parser
+ * this works on the raw bytes and only knows about the few tags it cares for:
+ * {@code tr}, {@code td}/{@code th} and {@code table}. Missing end tags,
+ * unknown tags, comments, {@code script}/{@code style} content and stray
+ * {@code <} characters are tolerated. The file is read through one reused
+ * {@link ByteBuffer}, so tags and cells may span buffer boundaries.
+ * <p>
+ * Instances are not thread safe, but may be reused for any number of files.
+ */
+final class HtmlReportScanner {
+
+    /**
+     * Receives the rows and cells of the scanned report, every method returns
+     * {@code false} to stop scanning.
+     */
+    interface Handler {
+        boolean startRow(String cssClass, String title);
+
+        boolean cell(String text);
+
+        boolean endRow();
+    }
+
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_CELL_LENGTH = 16 * 1024;
+    private static final int MAX_TAG_LENGTH = 16 * 1024;
+
+    private static final int TEXT = 0;
+    private static final int TAG = 1;
+    private static final int TAG_QUOTED = 2;
+    private static final int COMMENT = 3;
+    private static final int RAW_TEXT = 4;
+    private static final int SKIP_TAG = 5;
+
+    private static final byte[] SCRIPT_END = "</script".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STYLE_END = "</style".getBytes(StandardCharsets.US_ASCII);
+
+    private final ByteBuffer buffer;
+
+    private byte[] cell = new byte[256];
+    private int cellLength;
+    private boolean inCell;
+    private boolean inRow;
+
+    private byte[] tag = new byte[256];
+    private int tagLength;
+
+    private int state;
+    private byte quote;
+    private int matched;
+    private byte[] rawTextEnd;
+    private boolean stopped;
+    private Handler handler;
+
+    HtmlReportScanner() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    HtmlReportScanner(int bufferSize) {
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    void scan(File file, Handler handler) throws IOException {
+        reset(handler);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            byte[] bytes = this.buffer.array();
+            while (!this.stopped) {
+                this.buffer.clear();
+                int n = channel.read(this.buffer);
+                if (n < 0) {
+                    break;
+                }
+                for (int i = 0; i < n && !this.stopped; i++) {
+                    next(bytes[i]);
+                }
+            }
+            if (!this.stopped) {
+                closeCell();
+                closeRow();
+            }
+        } finally {
+            channel.close();
+            this.handler = null;
+        }
+    }
+
+    private void reset(Handler handler) {
+        this.handler = handler;
+        this.cellLength = 0;
+        this.inCell = false;
+        this.inRow = false;
+        this.tagLength = 0;
+        this.state = TEXT;
+        this.matched = 0;
+        this.rawTextEnd = null;
+        this.stopped = false;
+    }
+
+    private void next(byte b) {
+        switch (this.state) {
+            case TEXT:
+                if (b == '<') {
+                    this.state = TAG;
+                    this.tagLength = 0;
+                } else {
+                    appendText(b);
+                }
+                break;
+            case TAG:
+                nextInTag(b);
+                break;
+            case TAG_QUOTED:
+                appendTag(b);
+                if (b == this.quote) {
+                    this.state = TAG;
+                }
+                break;
+            case COMMENT:
+                if (b == '-') {
+                    this.matched++;
+                } else if (b == '>' && this.matched >= 2) {
+                    this.state = TEXT;
+                } else {
+                    this.matched = 0;
+                }
+                break;
+            case RAW_TEXT:
+                byte lower = toLower(b);
+                if (lower == this.rawTextEnd[this.matched]) {
+                    if (++this.matched == this.rawTextEnd.length) {
+                        this.state = SKIP_TAG;
+                    }
+                } else {
+                    this.matched = lower == this.rawTextEnd[0] ? 1 : 0;
+                }
+                break;
+            default: // SKIP_TAG
+                if (b == '>') {
+                    this.state = TEXT;
+                }
+                break;
+        }
+    }
+
+    private void nextInTag(byte b) {
+        if (this.tagLength == 0 && !isLetter(b) && b != '/' && b != '!' && b != '?') {
+            // a literal '<' in the text
+            this.state = TEXT;
+            appendText((byte) '<');
+            next(b);
+            return;
+        }
+        if (b == '>') {
+            this.state = TEXT;
+            handleTag();
+            return;
+        }
+        if ((b == '"' || b == '\'') && this.tagLength > 0) {
+            this.quote = b;
+            this.state = TAG_QUOTED;
+        }
+        appendTag(b);
+        if (this.tagLength == 3 && this.tag[0] == '!' && this.tag[1] == '-' && this.tag[2] == '-') {
+            this.state = COMMENT;
+            this.matched = 0;
+        }
+    }
+
+    private void appendText(byte b) {
+        if (this.inCell && this.cellLength < MAX_CELL_LENGTH) {
+            if (this.cellLength == this.cell.length) {
+                this.cell = grow(this.cell);
+            }
+            this.cell[this.cellLength++] = b;
+        }
+    }
+
+    private void appendTag(byte b) {
+        if (this.tagLength == MAX_TAG_LENGTH) {
+            // runaway tag, most likely an unbalanced quote: give it up
+            this.state = TEXT;
+            this.tagLength = 0;
+            return;
+        }
+        if (this.tagLength == this.tag.length) {
+            this.tag = grow(this.tag);
+        }
+        this.tag[this.tagLength++] = b;
+    }
+
+    private void handleTag() {
+        boolean end = this.tag[0] == '/';
+        int start = end ? 1 : 0;
+        int nameEnd = start;
+        while (nameEnd < this.tagLength && isNameChar(this.tag[nameEnd])) {
+            nameEnd++;
+        }
+        int length = nameEnd - start;
+        if (isName(start, length, "td") || isName(start, length, "th")) {
+            closeCell();
+            if (!end) {
+                this.inCell = true;
+                this.cellLength = 0;
+            }
+        } else if (isName(start, length, "tr")) {
+            closeCell();
+            closeRow();
+            if (!end && !this.stopped) {
+                this.inRow = true;
+                this.stopped = !this.handler.startRow(attribute(nameEnd, "class"), attribute(nameEnd, "title"));
+            }
+        } else if (isName(start, length, "table")) {
+            closeCell();
+            closeRow();
+        } else if (isName(start, length, "br") || isName(start, length, "p") || isName(start, length, "div")) {
+            appendText((byte) ' ');
+        } else if (!end && this.tag[this.tagLength - 1] != '/') {
+            if (isName(start, length, "script")) {
+                startRawText(SCRIPT_END);
+            } else if (isName(start, length, "style")) {
+                startRawText(STYLE_END);
+            }
+        }
+    }
+
+    private void startRawText(byte[] end) {
+        this.rawTextEnd = end;
+        this.matched = 0;
+        this.state = RAW_TEXT;
+    }
+
+    private void closeCell() {
+        if (this.inCell && !this.stopped) {
+            this.inCell = false;
+            String text = normalize(new String(this.cell, 0, this.cellLength, StandardCharsets.UTF_8));
+            this.stopped = !this.handler.cell(text);
+        }
+    }
+
+    private void closeRow() {
+        if (this.inRow && !this.stopped) {
+            this.inRow = false;
+            this.stopped = !this.handler.endRow();
+        }
+    }
+
+    private boolean isName(int start, int length, String name) {
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLower(this.tag[start + i]) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the decoded value of the given attribute of the current tag, or
+     * {@code null} if the tag does not have it.
+     */
+    private String attribute(int from, String name) {
+        int i = from;
+        while (i < this.tagLength) {
+            while (i < this.tagLength && !isNameChar(this.tag[i])) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < this.tagLength && isNameChar(this.tag[i])) {
+                i++;
+            }
+            int nameLength = i - nameStart;
+            while (i < this.tagLength && isSpace(this.tag[i])) {
+                i++;
+            }
+            if (i >= this.tagLength || this.tag[i] != '=') {
+                continue;
+            }
+            i++;
+            while (i < this.tagLength && isSpace(this.tag[i])) {
+                i++;
+            }
+            int valueStart;
+            int valueEnd;
+            if (i < this.tagLength && (this.tag[i] == '"' || this.tag[i] == '\'')) {
+                byte q = this.tag[i++];
+                valueStart = i;
+                while (i < this.tagLength && this.tag[i] != q) {
+                    i++;
+                }
+                valueEnd = i++;
+            } else {
+                valueStart = i;
+                while (i < this.tagLength && !isSpace(this.tag[i]) && this.tag[i] != '/') {
+                    i++;
+                }
+                valueEnd = i;
+            }
+            if (isName(nameStart, nameLength, name)) {
+                return decodeEntities(new String(this.tag, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes character references and collapses white space like a browser
+     * would when rendering the cell.
+     */
+    static String normalize(String raw) {
+        String s = decodeEntities(raw);
+        StringBuilder sb = null;
+        int length = s.length();
+        int start = 0;
+        while (start < length && isWhitespace(s.charAt(start))) {
+            start++;
+        }
+        int end = length;
+        while (end > start && isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (isWhitespace(c)) {
+                if (sb == null) {
+                    sb = new StringBuilder(end - start).append(s, start, i);
+                }
+                if (sb.charAt(sb.length() - 1) != ' ') {
+                    sb.append(' ');
+                }
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb != null ? sb.toString() : s.substring(start, end);
+    }
+
+    static String decodeEntities(String s) {
+        int amp = s.indexOf('&');
+        if (amp < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        sb.append(s, 0, amp);
+        int i = amp;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            int semi = c == '&' ? s.indexOf(';', i) : -1;
+            if (semi < 0 || semi - i > 10) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            String entity = s.substring(i + 1, semi);
+            int decoded = decodeEntity(entity);
+            if (decoded < 0) {
+                sb.append(c);
+                i++;
+            } else {
+                sb.appendCodePoint(decoded);
+                i = semi + 1;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int decodeEntity(String entity) {
+        if (entity.startsWith("#")) {
+            boolean hex = entity.startsWith("#x") || entity.startsWith("#X");
+            String digits = entity.substring(hex ? 2 : 1);
+            if (digits.isEmpty() || digits.charAt(0) == '+' || digits.charAt(0) == '-') {
+                return -1;
+            }
+            try {
+                int codePoint = Integer.parseInt(digits, hex ? 16 : 10);
+                // references beyond unicode are left as they are
+                return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        if ("amp".equals(entity)) {
+            return '&';
+        } else if ("lt".equals(entity)) {
+            return '<';
+        } else if ("gt".equals(entity)) {
+            return '>';
+        } else if ("quot".equals(entity)) {
+            return '"';
+        } else if ("apos".equals(entity)) {
+            return '\'';
+        } else if ("nbsp".equals(entity)) {
+            return '\u00a0';
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c <= ' ' || c == '\u00a0';
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private static boolean isNameChar(byte b) {
+        return isLetter(b) || (b >= '0' && b <= '9') || b == '-' || b == '_' || b == ':';
+    }
+
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static byte[] grow(byte[] bytes) {
+        byte[] grown = new byte[bytes.length * 2];
+        System.arraycopy(bytes, 0, grown, 0, bytes.length);
+        return grown;
+    }
+}
@@ -0,0 +1,48 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import hudson.model.Job;
+
+/**
+ * Locates the per-job files of this plugin, which live in a
+ * {@code seleniumhtmlreport} directory below the job's root directory.
+ */
+final class JobStorage {
+
+    static final String DIR_NAME = "seleniumhtmlreport";
+
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private JobStorage() {
+    }
+
+    static File getDir(Job<?, ?> job) {
+        return new File(job.getRootDir(), DIR_NAME);
+    }
+
+    static File getFile(Job<?, ?> job, String name) {
+        return new File(getDir(job), name);
+    }
+
+    /**
+     * Gets the monitor guarding updates of the per-job files of the given
+     * directory, so concurrent builds of one job do not interleave writes.
+     * Locks are kept for good, so this is only meant for the per-job
+     * directory, never for the directories of single builds.
+     */
+    static Object lockFor(File dir) {
+        String key = dir.getAbsolutePath();
+        Object lock = LOCKS.get(key);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = LOCKS.putIfAbsent(key, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+}
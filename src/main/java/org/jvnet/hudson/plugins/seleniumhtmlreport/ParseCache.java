@@ -0,0 +1,279 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hudson.Util;
+import hudson.model.Job;
+import jenkins.util.SystemProperties;
+
+/**
+ * Per-job cache of parsed result files, so report files which did not change
+ * between builds, or which were produced again by a retried shard, are not
+ * parsed again.
+ * <p>
+ * Results are keyed by file size and content hash. A second map from path,
+ * size and modification time to the content key lets unchanged files skip
+ * hashing as well. Both maps evict the least recently used entries.
+ * <p>
+ * The cache stays on the controller. The agent asks a {@link Lookup} once
+ * for the entries of the path, size and modification time of its result
+ * files, and once per file it had to hash. The new entries come back in a
+ * separate instance and are merged with {@link #update(Job, ParseCache)}.
+ */
+final class ParseCache implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String FILE_NAME = "parse-cache.dat";
+
+    static final int MAX_ENTRIES = SystemProperties.getInteger(ParseCache.class.getName() + ".maxEntries", 10000);
+
+    private static final int MAGIC = 0x53485243;
+    private static final int VERSION = 2;
+
+    private final LruMap<String, ParsedFile> results = new LruMap<String, ParsedFile>(MAX_ENTRIES);
+    private final LruMap<String, String> files = new LruMap<String, String>(MAX_ENTRIES);
+
+    static File getFile(Job<?, ?> job) {
+        return JobStorage.getFile(job, FILE_NAME);
+    }
+
+    static ParseCache load(Job<?, ?> job) throws IOException {
+        return read(getFile(job));
+    }
+
+    /**
+     * Gets a lookup in the persisted cache of the job, to be exported to the
+     * agent parsing the result files.
+     */
+    static Lookup lookup(Job<?, ?> job) throws IOException {
+        final ParseCache cache = load(job);
+        return new Lookup() {
+            public ParseCache select(Collection<String> fileKeys) {
+                return cache.select(fileKeys);
+            }
+
+            public ParsedFile get(String contentKey) {
+                return cache.get(contentKey);
+            }
+        };
+    }
+
+    /**
+     * Merges the entries found while parsing into the persisted cache of the
+     * job.
+     */
+    static void update(Job<?, ?> job, ParseCache updates) throws IOException {
+        File file = getFile(job);
+        synchronized (JobStorage.lockFor(file.getParentFile())) {
+            ParseCache cache = read(file);
+            cache.putAll(updates);
+            file.getParentFile().mkdirs();
+            cache.write(file);
+        }
+    }
+
+    static String fileKeyFor(String path, File file) {
+        return path + '|' + file.length() + '|' + file.lastModified();
+    }
+
+    /**
+     * Gets the key of the content of the given file, hashing it only if its
+     * path, size and modification time are not known yet.
+     */
+    String contentKeyFor(String fileKey, File file) throws IOException {
+        String contentKey;
+        synchronized (this) {
+            contentKey = this.files.get(fileKey);
+        }
+        if (contentKey == null) {
+            contentKey = file.length() + ":" + digest(file);
+        }
+        return contentKey;
+    }
+
+    synchronized ParsedFile get(String contentKey) {
+        return this.results.get(contentKey);
+    }
+
+    synchronized boolean containsFile(String fileKey) {
+        return this.files.containsKey(fileKey);
+    }
+
+    /**
+     * Gets the entries of the given file keys and of their contents only.
+     */
+    synchronized ParseCache select(Collection<String> fileKeys) {
+        ParseCache selected = new ParseCache();
+        for (String fileKey : fileKeys) {
+            String contentKey = this.files.get(fileKey);
+            ParsedFile result = contentKey != null ? this.results.get(contentKey) : null;
+            if (result != null) {
+                selected.put(fileKey, contentKey, result);
+            }
+        }
+        return selected;
+    }
+
+    synchronized void put(String fileKey, String contentKey, ParsedFile result) {
+        this.files.put(fileKey, contentKey);
+        this.results.put(contentKey, result);
+    }
+
+    synchronized int size() {
+        return this.results.size();
+    }
+
+    private void putAll(ParseCache other) {
+        for (Map.Entry<String, String> e : other.files.entrySet()) {
+            this.files.put(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, ParsedFile> e : other.results.entrySet()) {
+            this.results.put(e.getKey(), e.getValue());
+        }
+    }
+
+    private static String digest(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = new FileInputStream(file);
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return Util.toHexString(md.digest());
+    }
+
+    private static ParseCache read(File file) throws IOException {
+        ParseCache cache = new ParseCache();
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return cache;
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return cache; // written by another version, start over
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String key = in.readUTF();
+                TestResult result = new TestResult("", in.readUTF(), in.readInt(), in.readInt(), in.readInt(),
+                        in.readInt(), in.readInt(), in.readInt());
+                List<CommandFailure> failures = new ArrayList<CommandFailure>();
+                for (int f = in.readInt(); f > 0; f--) {
+                    failures.add(new CommandFailure("", in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()));
+                }
+                cache.results.put(key, new ParsedFile(result, failures));
+            }
+            n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                cache.files.put(in.readUTF(), in.readUTF());
+            }
+        } finally {
+            in.close();
+        }
+        return cache;
+    }
+
+    private void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            // oldest first, so reading restores the LRU order
+            out.writeInt(this.results.size());
+            for (Map.Entry<String, ParsedFile> e : this.results.entrySet()) {
+                TestResult r = e.getValue().result;
+                out.writeUTF(e.getKey());
+                out.writeUTF(r.getResult() != null ? r.getResult() : "");
+                out.writeInt(r.getTotalTime());
+                out.writeInt(r.getNumTestPasses());
+                out.writeInt(r.getNumTestFailures());
+                out.writeInt(r.getNumCommandPasses());
+                out.writeInt(r.getNumCommandFailures());
+                out.writeInt(r.getNumCommandErrors());
+                out.writeInt(e.getValue().failures.size());
+                for (CommandFailure f : e.getValue().failures) {
+                    out.writeUTF(f.getTestName());
+                    out.writeUTF(f.getCommand());
+                    out.writeUTF(f.getTarget());
+                    out.writeUTF(f.getMessage());
+                }
+            }
+            out.writeInt(this.files.size());
+            for (Map.Entry<String, String> e : this.files.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Access to the cache of a job from the node parsing the result files.
+     * Exported to agents, so only the entries they need are transferred.
+     */
+    public interface Lookup {
+
+        /**
+         * Gets the cached entries of the given path, size and modification
+         * time keys.
+         */
+        ParseCache select(Collection<String> fileKeys);
+
+        /**
+         * Gets the result of content which was not found by its file key,
+         * {@code null} if it was never parsed.
+         */
+        ParsedFile get(String contentKey);
+    }
+
+    private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > this.maxEntries;
+        }
+    }
+}
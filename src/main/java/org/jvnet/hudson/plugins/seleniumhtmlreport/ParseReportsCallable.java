@@ -0,0 +1,496 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.Util;
+import hudson.model.Result;
+import hudson.remoting.Pipe;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.io.Archiver;
+import hudson.util.io.ArchiverFactory;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.FileSet;
+
+/**
+ * Walks the selenium results directory once where it was written. The
+ * selected files are streamed as one zip to the controller, while the html
+ * files among them are parsed, so only the parsed {@link TestResult}s and the
+ * reports themselves travel back to the controller.
+ */
+class ParseReportsCallable extends MasterToSlaveFileCallable<ParseReportsCallable.ResultTuple> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Up to this many result files every file gets its own line in the build
+     * log, above only a count is logged.
+     */
+    static final int MAX_LOGGED_FILES = 50;
+
+    /** Files submitted ahead of the oldest unfinished one, per parse thread. */
+    private static final int QUEUED_FILES_PER_THREAD = 4;
+
+    /** Number of parse threads, {@code 0} uses the processors of the node. */
+    private final int parallelism;
+
+    /** Results of earlier builds, {@code null} if caching is disabled. */
+    private final ParseCache.Lookup cache;
+
+    private final String includes;
+
+    private final String excludes;
+
+    /** Receives the selected files as zip, {@code null} to only parse. */
+    private final Pipe transfer;
+
+    /**
+     * Receives the selected files instead of the pipe when the callable runs
+     * on the controller itself, where it is not serialized and the pipe
+     * would never be connected.
+     */
+    private final transient OutputStream localTransfer;
+
+    /**
+     * Thresholds at which parsing and transfer stop, {@code null} unless in
+     * fail fast mode.
+     */
+    private final FailFastThresholds failFast;
+
+    /**
+     * Position among the selected files of the last one to keep in fail fast
+     * mode, {@code -1} until a threshold is exceeded. Only ever lowered.
+     */
+    private transient AtomicInteger stopAt;
+
+    ParseReportsCallable(int parallelism) {
+        this(parallelism, null, "**/*", null, null, null, null);
+    }
+
+    ParseReportsCallable(int parallelism, ParseCache.Lookup cache, String includes, String excludes, Pipe transfer,
+            OutputStream localTransfer, FailFastThresholds failFast) {
+        this.parallelism = parallelism;
+        this.cache = cache;
+        this.includes = includes;
+        this.excludes = excludes;
+        this.transfer = transfer;
+        this.localTransfer = localTransfer;
+        this.failFast = failFast;
+    }
+
+    @Override
+    public ResultTuple invoke(final File seleniumResultsDir, VirtualChannel channel) throws IOException, InterruptedException {
+        ResultTuple resultTpl = new ResultTuple(false, new ArrayList<TestResult>());
+        this.stopAt = new AtomicInteger(-1);
+        OutputStream out = this.localTransfer != null ? this.localTransfer
+                : this.transfer != null ? this.transfer.getOut() : null;
+        try {
+            if (!seleniumResultsDir.isDirectory()) {
+                resultTpl.missingDirectory = true;
+                resultTpl.parseNanos = new long[0];
+                new TransferTask(seleniumResultsDir, new String[0], out, resultTpl, this.stopAt).call();
+                return resultTpl;
+            }
+            long start = System.nanoTime();
+            FileSet fs = Util.createFileSet(seleniumResultsDir, this.includes, Util.fixEmptyAndTrim(this.excludes));
+            DirectoryScanner ds = fs.getDirectoryScanner();
+            String[] selected = ds.getIncludedFiles();
+            List<String> htmlFiles = new ArrayList<String>();
+            int[] positions = new int[selected.length];
+            for (int i = 0; i < selected.length; i++) {
+                if (selected[i].endsWith(".html")) {
+                    positions[htmlFiles.size()] = i;
+                    htmlFiles.add(selected[i]);
+                }
+            }
+            positions = Arrays.copyOf(positions, htmlFiles.size());
+            resultTpl.selectedFiles = selected.length;
+            resultTpl.scanMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (out == null || selected.length == 0) {
+                // an empty selection still sends a valid, empty zip
+                new TransferTask(seleniumResultsDir, selected, out, resultTpl, this.stopAt).call();
+                parseAll(seleniumResultsDir, htmlFiles.toArray(new String[0]), positions, resultTpl);
+                return resultTpl;
+            }
+            ExecutorService transferExecutor = Executors.newSingleThreadExecutor(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "SeleniumHtmlReportPublisher.transfer"));
+            try {
+                Future<?> transferred = transferExecutor.submit(new TransferTask(seleniumResultsDir, selected, out, resultTpl, this.stopAt));
+                parseAll(seleniumResultsDir, htmlFiles.toArray(new String[0]), positions, resultTpl);
+                transferred.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Unable to transfer the selenium reports", e.getCause());
+            } finally {
+                transferExecutor.shutdownNow();
+            }
+            return resultTpl;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Parses the html files, {@code positions} holds the position of every
+     * file among the selected files. In fail fast mode the results stop at
+     * the first file, in scan order, at which the running totals exceed a
+     * threshold, like the transfer. A file exceeding a threshold on its own
+     * stops submitting later files before the results up to it are
+     * collected.
+     */
+    private void parseAll(final File seleniumResultsDir, String[] files, int[] positions, ResultTuple resultTpl) throws InterruptedException {
+        resultTpl.parseNanos = new long[files.length];
+        if (files.length == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        final long[] parseNanos = resultTpl.parseNanos;
+        boolean logFiles = files.length <= MAX_LOGGED_FILES;
+        if (!logFiles) {
+            resultTpl.log.add("parsing " + files.length + " result files");
+        }
+        final ParseCache known = this.cache != null ? selectCached(seleniumResultsDir, files) : null;
+        final ParseCache updates = this.cache != null ? new ParseCache() : null;
+        final AtomicInteger hits = new AtomicInteger();
+        final Totals totals = new Totals();
+        int submitted = 0;
+        int kept = 0;
+        int threads = Math.min(this.parallelism > 0 ? this.parallelism : Runtime.getRuntime().availableProcessors(), files.length);
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new NamingThreadFactory(new DaemonThreadFactory(), "SeleniumHtmlReportPublisher.parse"));
+        try {
+            // at most this many files are in flight, older results are collected before more are submitted
+            int window = threads * QUEUED_FILES_PER_THREAD;
+            Deque<Future<ParsedFile>> inFlight = new ArrayDeque<Future<ParsedFile>>(window);
+            int collected = 0;
+            for (int i = 0; i < files.length; i++) {
+                final String selfile = files[i];
+                final int index = i;
+                final int position = positions[i];
+                if (inFlight.size() == window) {
+                    kept += collect(resultTpl, files[collected], positions[collected], inFlight.poll(), logFiles, totals) ? 1 : 0;
+                    collected++;
+                }
+                int stop = this.stopAt.get();
+                if (stop >= 0 && position > stop) {
+                    break;
+                }
+                inFlight.add(executor.submit(new Callable<ParsedFile>() {
+                    public ParsedFile call() throws IOException {
+                        long fileStart = System.nanoTime();
+                        try {
+                            ParsedFile parsed = updates == null ? parse(selfile, seleniumResultsDir)
+                                    : parseCached(selfile, seleniumResultsDir, known, updates, hits);
+                            if (failFast != null && failFast.check(new Totals().add(parsed.result)) != null) {
+                                lowerStopAt(position);
+                            }
+                            return parsed;
+                        } finally {
+                            // each slot is written by one thread only, the future publishes it
+                            parseNanos[index] = System.nanoTime() - fileStart;
+                        }
+                    }
+                }));
+                submitted++;
+            }
+            while (!inFlight.isEmpty()) {
+                kept += collect(resultTpl, files[collected], positions[collected], inFlight.poll(), logFiles, totals) ? 1 : 0;
+                collected++;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        resultTpl.parseMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (this.stopAt.get() >= 0) {
+            resultTpl.failedFast = true;
+            resultTpl.parseNanos = Arrays.copyOf(parseNanos, submitted);
+            resultTpl.log.add("Fail fast: " + resultTpl.failFastReason + ", skipped "
+                    + (files.length - kept) + " of " + files.length + " result files");
+        }
+        if (updates != null) {
+            resultTpl.cacheUpdates = updates;
+            resultTpl.cacheHits = hits.get();
+            resultTpl.cacheMisses = submitted - hits.get();
+        }
+    }
+
+    /**
+     * Lowers the position of the last file to keep, several parse threads
+     * may exceed a threshold at once.
+     */
+    private void lowerStopAt(int position) {
+        for (int stop = this.stopAt.get(); stop < 0 || position < stop; stop = this.stopAt.get()) {
+            if (this.stopAt.compareAndSet(stop, position)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits for the next result in scan order, so results, log lines and the
+     * running totals of fail fast mode stay deterministic. Files after the
+     * one that stopped a fail fast publish are dropped, as their reports may
+     * not have been transferred.
+     *
+     * @return whether the file was kept
+     */
+    private boolean collect(ResultTuple resultTpl, String selfile, int position, Future<ParsedFile> future, boolean logFile,
+            Totals totals) throws InterruptedException {
+        ParsedFile parsed = null;
+        ExecutionException failure = null;
+        try {
+            parsed = future.get();
+        } catch (ExecutionException e) {
+            failure = e;
+        }
+        int stop = this.stopAt.get();
+        if (stop >= 0 && position > stop) {
+            return false;
+        }
+        if (logFile) {
+            resultTpl.log.add("parsing resultFile " + selfile);
+        }
+        if (failure != null) {
+            resultTpl.log.add("Unable to parse " + selfile + ": " + failure.getCause());
+            resultTpl.exceptionWhileParsing = true;
+        } else {
+            resultTpl.results.add(parsed.result);
+            resultTpl.failures.addAll(parsed.failures);
+            if (this.failFast != null && resultTpl.failFastResult == null) {
+                Exceeded exceeded = this.failFast.check(totals.add(parsed.result));
+                if (exceeded != null) {
+                    resultTpl.failFastResult = exceeded.result;
+                    resultTpl.failFastReason = exceeded + " at " + selfile;
+                    lowerStopAt(position);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static ParsedFile parse(String selfile, File seleniumResultsDir) throws IOException {
+        List<CommandFailure> failures = new ArrayList<CommandFailure>();
+        TestResult result = TestResult.parse(selfile, seleniumResultsDir, failures);
+        return new ParsedFile(result, failures);
+    }
+
+    /**
+     * Gets the cached entries of the given files in one call, with their
+     * path, size and modification time only.
+     */
+    private ParseCache selectCached(File seleniumResultsDir, String[] files) {
+        List<String> fileKeys = new ArrayList<String>(files.length);
+        for (String selfile : files) {
+            fileKeys.add(ParseCache.fileKeyFor(selfile, new File(seleniumResultsDir, selfile)));
+        }
+        return this.cache.select(fileKeys);
+    }
+
+    private ParsedFile parseCached(String selfile, File seleniumResultsDir, ParseCache known, ParseCache updates,
+            AtomicInteger hits) throws IOException {
+        File file = new File(seleniumResultsDir, selfile);
+        String fileKey = ParseCache.fileKeyFor(selfile, file);
+        String contentKey = known.contentKeyFor(fileKey, file);
+        ParsedFile parsed = known.get(contentKey);
+        if (parsed == null && !known.containsFile(fileKey)) {
+            // the hashed content may have been parsed under another path or time
+            parsed = this.cache.get(contentKey);
+        }
+        if (parsed != null) {
+            hits.incrementAndGet();
+            parsed = parsed.withResultFileName(selfile);
+        } else {
+            parsed = parse(selfile, seleniumResultsDir);
+        }
+        // hits are sent back as well, to keep them recently used
+        updates.put(fileKey, contentKey, parsed.withResultFileName(""));
+        return parsed;
+    }
+
+    /**
+     * Writes the selected files, in scan order, as one zip into the transfer
+     * pipe. A fail fast stop ends the zip after the file that caused it, so
+     * its report always reaches the controller.
+     */
+    private static final class TransferTask implements Callable<Void> {
+        private final File dir;
+        private final String[] files;
+        private final OutputStream out;
+        private final ResultTuple resultTpl;
+        private final AtomicInteger stopAt;
+
+        TransferTask(File dir, String[] files, OutputStream out, ResultTuple resultTpl, AtomicInteger stopAt) {
+            this.dir = dir;
+            this.files = files;
+            this.out = out;
+            this.resultTpl = resultTpl;
+            this.stopAt = stopAt;
+        }
+
+        public Void call() throws IOException {
+            if (this.out == null) {
+                return null;
+            }
+            long bytes = 0;
+            int count = 0;
+            Archiver archiver = ArchiverFactory.ZIP.create(this.out);
+            try {
+                for (int i = 0; i < this.files.length; i++) {
+                    int stop = this.stopAt.get();
+                    if (stop >= 0 && i > stop) {
+                        break;
+                    }
+                    String relativePath = this.files[i];
+                    count++;
+                    File file = new File(this.dir, relativePath);
+                    archiver.visit(file, relativePath.replace(File.separatorChar, '/'));
+                    bytes += file.length();
+                }
+            } finally {
+                archiver.close();
+            }
+            this.resultTpl.transferFiles = count;
+            this.resultTpl.transferBytes = bytes;
+            return null;
+        }
+    }
+
+    /**
+     * The absolute thresholds of the publisher. Running totals never fall
+     * below one again once they exceeded it, so the build result is known
+     * before all files are parsed. Percentages need all results and are left
+     * to the check of the complete results.
+     */
+    static final class FailFastThresholds implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Threshold unstableFailures;
+        private final Threshold failedFailures;
+        private final Threshold unstableErrors;
+        private final Threshold failedErrors;
+        private final Threshold unstableDuration;
+        private final Threshold failedDuration;
+
+        FailFastThresholds(String unstableFailures, String failedFailures, String unstableErrors, String failedErrors,
+                String unstableDuration, String failedDuration) {
+            this.unstableFailures = absolute(unstableFailures);
+            this.failedFailures = absolute(failedFailures);
+            this.unstableErrors = absolute(unstableErrors);
+            this.failedErrors = absolute(failedErrors);
+            this.unstableDuration = absolute(unstableDuration);
+            this.failedDuration = absolute(failedDuration);
+        }
+
+        private static Threshold absolute(String value) {
+            try {
+                Threshold threshold = Threshold.parse(value);
+                return threshold != null && !threshold.isPercentage() ? threshold : null;
+            } catch (IllegalArgumentException e) {
+                return null; // reported by the check of the complete results
+            }
+        }
+
+        /**
+         * Gets the worst threshold exceeded by the totals, {@code null} if
+         * none is.
+         */
+        Exceeded check(Totals totals) {
+            Exceeded exceeded = check(Result.FAILURE, "command failures", totals.failures, this.failedFailures);
+            exceeded = exceeded != null ? exceeded : check(Result.FAILURE, "command errors", totals.errors, this.failedErrors);
+            exceeded = exceeded != null ? exceeded : check(Result.FAILURE, "duration", totals.duration, this.failedDuration);
+            exceeded = exceeded != null ? exceeded : check(Result.UNSTABLE, "command failures", totals.failures, this.unstableFailures);
+            exceeded = exceeded != null ? exceeded : check(Result.UNSTABLE, "command errors", totals.errors, this.unstableErrors);
+            return exceeded != null ? exceeded : check(Result.UNSTABLE, "duration", totals.duration, this.unstableDuration);
+        }
+
+        private static Exceeded check(Result result, String name, long value, Threshold threshold) {
+            return threshold != null && threshold.isExceededBy(value, 0) ? new Exceeded(result, name, value, threshold) : null;
+        }
+    }
+
+    static final class Exceeded {
+        final Result result;
+        private final String name;
+        private final long value;
+        private final Threshold threshold;
+
+        Exceeded(Result result, String name, long value, Threshold threshold) {
+            this.result = result;
+            this.name = name;
+            this.value = value;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public String toString() {
+            return "threshold for " + this.result + " exceeded: " + this.name + " " + this.value + " > " + this.threshold;
+        }
+    }
+
+    /**
+     * Running totals of the results checked against the thresholds.
+     */
+    static final class Totals {
+        long failures;
+        long errors;
+        long duration;
+
+        Totals add(TestResult r) {
+            this.failures += r.getNumCommandFailures();
+            this.errors += r.getNumCommandErrors();
+            this.duration += r.getTotalTime();
+            return this;
+        }
+    }
+
+    static class ResultTuple implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        boolean exceptionWhileParsing = false;
+        List<TestResult> results;
+        final List<String> log = new ArrayList<String>();
+        final List<CommandFailure> failures = new ArrayList<CommandFailure>();
+        ParseCache cacheUpdates;
+        int cacheHits;
+        int cacheMisses;
+        long scanMillis;
+        long parseMillis;
+        /** Parse time of every result file, in scan order. */
+        long[] parseNanos;
+        /** Whether the results directory does not exist at all. */
+        boolean missingDirectory;
+        /** Whether parsing stopped early at an exceeded threshold. */
+        boolean failedFast;
+        /** The result called for by the threshold that stopped parsing. */
+        Result failFastResult;
+        String failFastReason;
+        /** Files matching the include and exclude patterns. */
+        int selectedFiles;
+        int transferFiles;
+        long transferBytes;
+
+        public ResultTuple(boolean exceptionWhileParsing, List<TestResult> results) {
+            super();
+            this.exceptionWhileParsing = exceptionWhileParsing;
+            this.results = results;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything read from one result file: its {@link TestResult} and the failed
+ * command rows.
+ */
+final class ParsedFile implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final TestResult result;
+    final List<CommandFailure> failures;
+
+    ParsedFile(TestResult result, List<CommandFailure> failures) {
+        this.result = result;
+        this.failures = failures.isEmpty() ? Collections.<CommandFailure>emptyList() : failures;
+    }
+
+    /**
+     * Gets a copy of this for another result file with the same content.
+     */
+    ParsedFile withResultFileName(String resultFileName) {
+        List<CommandFailure> renamed = new ArrayList<CommandFailure>(this.failures.size());
+        for (CommandFailure f : this.failures) {
+            renamed.add(f.withResultFileName(resultFileName));
+        }
+        return new ParsedFile(this.result.withResultFileName(resultFileName), renamed);
+    }
+}
@@ -0,0 +1,49 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+
+/**
+ * Reports the {@link PublishTimings} of every publish to the Metrics plugin,
+ * if that is installed.
+ */
+final class PublishMetrics {
+
+    private static final String PREFIX = "seleniumhtmlreport.publish";
+
+    private PublishMetrics() {
+    }
+
+    static void record(PublishTimings timings) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null || jenkins.getPlugin("metrics") == null) {
+            return;
+        }
+        // only touches the metrics classes when the plugin is there
+        Bridge.record(timings);
+    }
+
+    private static final class Bridge {
+        static void record(PublishTimings t) {
+            MetricRegistry registry = Metrics.metricRegistry();
+            registry.counter(MetricRegistry.name(PREFIX, "count")).inc();
+            registry.counter(MetricRegistry.name(PREFIX, "files")).inc(t.getParseFiles());
+            registry.counter(MetricRegistry.name(PREFIX, "bytes")).inc(t.getTransferBytes());
+            timer(registry, "duration", t.getTotalMillis());
+            timer(registry, "scan", t.getScanMillis());
+            timer(registry, "transfer", t.getTransferMillis());
+            timer(registry, "parse", t.getParseMillis());
+            timer(registry, "aggregate", t.getAggregateMillis());
+            timer(registry, "persist", t.getPersistMillis());
+            registry.histogram(MetricRegistry.name(PREFIX, "files.per.publish")).update(t.getParseFiles());
+            registry.histogram(MetricRegistry.name(PREFIX, "parse.file.p99.micros")).update(t.getParseP99Micros());
+        }
+
+        private static void timer(MetricRegistry registry, String phase, long millis) {
+            registry.timer(MetricRegistry.name(PREFIX, phase)).update(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in the phases of one publish: scanning the results directory,
+ * transferring the reports, parsing, aggregating and persisting the results.
+ */
+public final class PublishTimings implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    long scanMillis;
+    long transferMillis;
+    long transferBytes;
+    int transferFiles;
+    long parseMillis;
+    int parseFiles;
+    long parseP50Micros;
+    long parseP90Micros;
+    long parseP99Micros;
+    long parseMaxMicros;
+    long aggregateMillis;
+    long persistMillis;
+    long totalMillis;
+
+    /**
+     * Sets the per file statistics from the parse time of every file.
+     */
+    void setParseNanos(long[] nanos) {
+        this.parseFiles = nanos.length;
+        if (nanos.length == 0) {
+            return;
+        }
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        this.parseP50Micros = micros(percentile(sorted, 50));
+        this.parseP90Micros = micros(percentile(sorted, 90));
+        this.parseP99Micros = micros(percentile(sorted, 99));
+        this.parseMaxMicros = micros(sorted[sorted.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    public long getScanMillis() {
+        return this.scanMillis;
+    }
+
+    public long getTransferMillis() {
+        return this.transferMillis;
+    }
+
+    public long getTransferBytes() {
+        return this.transferBytes;
+    }
+
+    public int getTransferFiles() {
+        return this.transferFiles;
+    }
+
+    public long getParseMillis() {
+        return this.parseMillis;
+    }
+
+    public int getParseFiles() {
+        return this.parseFiles;
+    }
+
+    public long getParseP50Micros() {
+        return this.parseP50Micros;
+    }
+
+    public long getParseP90Micros() {
+        return this.parseP90Micros;
+    }
+
+    public long getParseP99Micros() {
+        return this.parseP99Micros;
+    }
+
+    public long getParseMaxMicros() {
+        return this.parseMaxMicros;
+    }
+
+    public long getAggregateMillis() {
+        return this.aggregateMillis;
+    }
+
+    public long getPersistMillis() {
+        return this.persistMillis;
+    }
+
+    /**
+     * Gets the wall clock time of the whole publish, less than the sum of the
+     * phases as the transfer overlaps scanning and parsing.
+     */
+    public long getTotalMillis() {
+        return this.totalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getTotalMillis() + " ms: scan " + this.scanMillis + " ms, transfer " + this.transferMillis + " ms ("
+                + this.transferFiles + " files, " + this.transferBytes / 1024 + " KB), parse " + this.parseMillis
+                + " ms (" + this.parseFiles + " files, per file p50 " + this.parseP50Micros + " us, p90 "
+                + this.parseP90Micros + " us, p99 " + this.parseP99Micros + " us, max " + this.parseMaxMicros
+                + " us), aggregate " + this.aggregateMillis + " ms, persist " + this.persistMillis + " ms";
+    }
+}
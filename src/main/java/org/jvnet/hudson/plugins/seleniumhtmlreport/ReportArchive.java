@@ -0,0 +1,169 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Serves single entries of the zip archive the reports of a build are stored
+ * in. The central directory of the zip is read once into an index holding
+ * the offset of the data of every entry, so an entry is read without
+ * extracting the archive or scanning it again. Deflated entries are sent to
+ * clients accepting gzip as they are stored, see {@link ReportHttpCache}.
+ */
+class ReportArchive extends ReportTree {
+
+    static final String EXTENSION = ".zip";
+
+    private final File archive;
+    private final Map<String, Entry> entries;
+
+    private ReportArchive(File archive, Map<String, Entry> entries) {
+        super(archive);
+        this.archive = archive;
+        this.entries = entries;
+    }
+
+    /**
+     * Gets the archive belonging to the given reports directory.
+     */
+    static File forReportsDir(File seleniumReportsDir) {
+        return new File(seleniumReportsDir.getParentFile(), seleniumReportsDir.getName() + EXTENSION);
+    }
+
+    static ReportArchive read(File archive) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        ZipFile zip = new ZipFile(archive);
+        try {
+            for (Enumeration<ZipArchiveEntry> e = zip.getEntries(); e.hasMoreElements(); ) {
+                ZipArchiveEntry entry = e.nextElement();
+                if (!entry.isDirectory()) {
+                    entries.put(entry.getName(), new Entry(entry));
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return new ReportArchive(archive, Collections.unmodifiableMap(entries));
+    }
+
+    @Override
+    Collection<String> getPaths() {
+        return this.entries.keySet();
+    }
+
+    @Override
+    boolean isFile(String path) {
+        return this.entries.containsKey(path);
+    }
+
+    @Override
+    long length(String path) {
+        return this.entries.get(path).size;
+    }
+
+    @Override
+    long lastModified(String path) {
+        return this.entries.get(path).time;
+    }
+
+    @Override
+    InputStream open(String path) throws IOException {
+        Entry entry = this.entries.get(path);
+        InputStream raw = openRaw(entry);
+        if (entry.method != ZipEntry.DEFLATED) {
+            return raw;
+        }
+        return new InflaterInputStream(raw, new Inflater(true)) {
+            private boolean eof;
+
+            @Override
+            protected void fill() throws IOException {
+                if (this.eof) {
+                    throw new EOFException("Unexpected end of deflated entry " + path);
+                }
+                this.len = this.in.read(this.buf, 0, this.buf.length);
+                if (this.len == -1) {
+                    // the inflater may need one byte past the stored data, as for ZipFile
+                    this.buf[0] = 0;
+                    this.len = 1;
+                    this.eof = true;
+                }
+                this.inf.setInput(this.buf, 0, this.len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                this.inf.end();
+            }
+        };
+    }
+
+    @Override
+    boolean serveCached(StaplerRequest req, StaplerResponse rsp, String path) throws IOException {
+        Entry entry = this.entries.get(path);
+        boolean gzip = entry.method == ZipEntry.DEFLATED && ReportHttpCache.useGzip(req, rsp, path);
+        // the crc of the central directory identifies the content without reading it
+        String etag = ReportHttpCache.etag(Long.toHexString(entry.crc) + "-" + Long.toHexString(entry.size)
+                + (gzip ? "-gz" : ""));
+        if (ReportHttpCache.isNotModified(req, rsp, etag, false)) {
+            return true;
+        }
+        if (!gzip) {
+            return false;
+        }
+        InputStream raw = openRaw(entry);
+        try {
+            ReportHttpCache.serveDeflated(req, rsp, raw, entry.compressedSize, entry.crc, entry.size, entry.time, path);
+        } finally {
+            raw.close();
+        }
+        return true;
+    }
+
+    private InputStream openRaw(Entry entry) throws IOException {
+        FileInputStream in = new FileInputStream(this.archive);
+        try {
+            in.getChannel().position(entry.dataOffset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BoundedInputStream(in, entry.compressedSize);
+    }
+
+    private static final class Entry {
+        final int method;
+        final long crc;
+        final long size;
+        final long compressedSize;
+        final long dataOffset;
+        final long time;
+
+        Entry(ZipArchiveEntry entry) {
+            this.method = entry.getMethod();
+            this.crc = entry.getCrc();
+            this.size = entry.getSize();
+            this.compressedSize = entry.getCompressedSize();
+            this.dataOffset = entry.getDataOffset();
+            this.time = entry.getTime();
+        }
+    }
+}
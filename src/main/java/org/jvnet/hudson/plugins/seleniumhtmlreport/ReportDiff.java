@@ -0,0 +1,180 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes of the results of a build against a baseline build: result
+ * files which regressed, got fixed, got much slower, were added or removed.
+ * <p>
+ * Both result sets are joined by file name with one hash table built over the
+ * baseline, so comparing builds with thousands of result files stays linear.
+ * Shard prefixes are ignored, as shards may be numbered differently in every
+ * build.
+ */
+public final class ReportDiff {
+
+    /** Default threshold of the duration increase of a much slower file. */
+    static final String DEFAULT_SLOWER = "50%";
+
+    public enum Change {
+        REGRESSED, FIXED, SLOWER, ADDED, REMOVED
+    }
+
+    private final int baselineNumber;
+    private final Threshold slower;
+    private final List<Row> rows;
+    private final int[] counts = new int[Change.values().length];
+    private int unchanged;
+
+    private ReportDiff(int baselineNumber, Threshold slower, List<Row> rows) {
+        this.baselineNumber = baselineNumber;
+        this.slower = slower;
+        this.rows = rows;
+    }
+
+    /**
+     * Compares the results, {@code slower} is the duration increase over the
+     * baseline from which a file counts as much slower, {@code null} to skip
+     * durations.
+     */
+    static ReportDiff compute(List<TestResult> results, int baselineNumber, List<TestResult> baseline, Threshold slower) {
+        Map<String, TestResult> byName = new HashMap<String, TestResult>(baseline.size() * 4 / 3 + 1);
+        for (TestResult r : baseline) {
+            byName.put(ReportShards.stripPathPrefix(r.getResultFileName()), r);
+        }
+        ReportDiff diff = new ReportDiff(baselineNumber, slower, new ArrayList<Row>());
+        for (TestResult r : results) {
+            TestResult before = byName.remove(ReportShards.stripPathPrefix(r.getResultFileName()));
+            Change change;
+            if (before == null) {
+                change = Change.ADDED;
+            } else if (isPassed(before) && !isPassed(r)) {
+                change = Change.REGRESSED;
+            } else if (!isPassed(before) && isPassed(r)) {
+                change = Change.FIXED;
+            } else if (slower != null && r.getTotalTime() > before.getTotalTime()
+                    && slower.isExceededBy(r.getTotalTime() - before.getTotalTime(), before.getTotalTime())) {
+                change = Change.SLOWER;
+            } else {
+                diff.unchanged++;
+                continue;
+            }
+            diff.add(new Row(change, before, r));
+        }
+        for (TestResult r : baseline) {
+            // what is left in the table was not run by the build
+            if (byName.remove(ReportShards.stripPathPrefix(r.getResultFileName())) != null) {
+                diff.add(new Row(Change.REMOVED, r, null));
+            }
+        }
+        Collections.sort(diff.rows, new Comparator<Row>() {
+            public int compare(Row a, Row b) {
+                int c = a.change.compareTo(b.change);
+                return c != 0 ? c : Integer.compare(b.getDurationDelta(), a.getDurationDelta());
+            }
+        });
+        return diff;
+    }
+
+    private static boolean isPassed(TestResult r) {
+        return "passed".equalsIgnoreCase(r.getResult());
+    }
+
+    private void add(Row row) {
+        this.rows.add(row);
+        this.counts[row.change.ordinal()]++;
+    }
+
+    public int getBaselineNumber() {
+        return this.baselineNumber;
+    }
+
+    public String getSlower() {
+        return this.slower != null ? this.slower.toString() : "";
+    }
+
+    /**
+     * Gets the changed result files, regressions first and the slowest
+     * first within every kind of change.
+     */
+    public List<Row> getRows() {
+        return this.rows;
+    }
+
+    public int getCount(Change change) {
+        return this.counts[change.ordinal()];
+    }
+
+    public int getRegressed() {
+        return getCount(Change.REGRESSED);
+    }
+
+    public int getFixed() {
+        return getCount(Change.FIXED);
+    }
+
+    public int getSlowerCount() {
+        return getCount(Change.SLOWER);
+    }
+
+    public int getAdded() {
+        return getCount(Change.ADDED);
+    }
+
+    public int getRemoved() {
+        return getCount(Change.REMOVED);
+    }
+
+    public int getUnchanged() {
+        return this.unchanged;
+    }
+
+    /**
+     * One changed result file, {@code baseline} is {@code null} for added
+     * files and {@code current} for removed ones.
+     */
+    public static final class Row {
+        private final Change change;
+        private final TestResult baseline;
+        private final TestResult current;
+
+        Row(Change change, TestResult baseline, TestResult current) {
+            this.change = change;
+            this.baseline = baseline;
+            this.current = current;
+        }
+
+        public Change getChange() {
+            return this.change;
+        }
+
+        public TestResult getBaseline() {
+            return this.baseline;
+        }
+
+        public TestResult getCurrent() {
+            return this.current;
+        }
+
+        public String getName() {
+            return this.current != null ? this.current.getResultFileName()
+                    : ReportShards.stripPathPrefix(this.baseline.getResultFileName());
+        }
+
+        /**
+         * Gets the change of the duration in seconds, {@code 0} unless the
+         * file ran in both builds.
+         */
+        public int getDurationDelta() {
+            if (this.baseline == null || this.current == null) {
+                return 0;
+            }
+            return this.current.getTotalTime() - this.baseline.getTotalTime();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import hudson.Util;
+import hudson.model.DirectoryBrowserSupport;
+import jenkins.util.SystemProperties;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * HTTP caching for the report files of a build. Every file is served with an
+ * entity tag and a client sending the tag back gets {@code 304 Not Modified}.
+ * Only content addressed files, the blobs of a manifest, are immutable and
+ * may be cached for a year. Loose files and archives are replaced while
+ * other shards publish and by a purge, so clients revalidate them on every
+ * use.
+ * <p>
+ * Text files are served gzip compressed to clients accepting it, from a
+ * variant compressed once ahead of the request: the deflated entry of the
+ * zip archive or a compressed copy next to the blob. Every representation
+ * has its own entity tag. Like every report file they carry the
+ * Content-Security-Policy of {@link DirectoryBrowserSupport}.
+ */
+final class ReportHttpCache {
+
+    static final long MAX_AGE_SECONDS = TimeUnit.DAYS.toSeconds(365);
+
+    static final String GZIP_EXTENSION = ".gz";
+
+    /** Fixed gzip member header: deflate, no flags, no time, unknown OS. */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private static final Set<String> COMPRESSIBLE = new HashSet<String>(Arrays.asList(
+            "html", "htm", "css", "js", "txt", "xml", "json", "svg", "csv", "log"));
+
+    private ReportHttpCache() {
+    }
+
+    static String etag(String value) {
+        return '"' + value + '"';
+    }
+
+    /**
+     * An entity tag derived from file metadata rather than the content.
+     */
+    static String weakEtag(String value) {
+        return "W/" + etag(value);
+    }
+
+    /**
+     * Sets the caching headers of a report file and answers {@code 304} if
+     * the client already has the given representation.
+     *
+     * @param immutable whether the entity tag identifies the content itself,
+     *            so the response may be cached without revalidation
+     * @return whether the response is complete
+     */
+    static boolean isNotModified(StaplerRequest req, StaplerResponse rsp, String etag, boolean immutable) {
+        rsp.setHeader("ETag", etag);
+        rsp.setHeader("Cache-Control", immutable
+                ? "private, max-age=" + MAX_AGE_SECONDS + ", immutable"
+                : "private, no-cache");
+        if (matches(req.getHeader("If-None-Match"), etag)) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether an {@code If-None-Match} header contains the entity tag, with
+     * the weak comparison RFC 7232 asks for.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        if (etag.startsWith("W/")) {
+            etag = etag.substring(2);
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the file at the given path is served compressed to this client.
+     * Compressible files vary by the accepted encodings either way.
+     */
+    static boolean useGzip(StaplerRequest req, StaplerResponse rsp, String path) {
+        if (!isCompressible(path)) {
+            return false;
+        }
+        rsp.addHeader("Vary", "Accept-Encoding");
+        return acceptsGzip(req.getHeader("Accept-Encoding"));
+    }
+
+    static boolean isCompressible(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot >= 0 && COMPRESSIBLE.contains(path.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim().replace(" ", "");
+                if (param.matches("q=0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resolves a request path to a regular file below the given directory,
+     * {@code null} for anything else.
+     */
+    static File resolve(File dir, String restOfPath) throws IOException {
+        String path = Util.rawDecode(restOfPath);
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path.isEmpty()) {
+            return null;
+        }
+        File file = new File(dir, path);
+        if (!file.isFile() || !file.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator)) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Serves a file compressed ahead of time with {@link #compress(File, File)}.
+     */
+    static void serveGzip(StaplerRequest req, StaplerResponse rsp, File gzip, long lastModified, String path) throws IOException {
+        setGzipHeaders(req, rsp, gzip.length(), lastModified, path);
+        InputStream in = new FileInputStream(gzip);
+        try {
+            IOUtils.copy(in, rsp.getOutputStream());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Serves a raw deflate stream, like a deflated zip entry, as gzip. Only a
+     * header and the known checksum and size are added, nothing is
+     * compressed again.
+     */
+    static void serveDeflated(StaplerRequest req, StaplerResponse rsp, InputStream deflated, long compressedSize,
+            long crc, long size, long lastModified, String path) throws IOException {
+        setGzipHeaders(req, rsp, GZIP_HEADER.length + compressedSize + GZIP_TRAILER_LENGTH, lastModified, path);
+        writeGzip(deflated, crc, size, rsp.getOutputStream());
+    }
+
+    static void writeGzip(InputStream deflated, long crc, long size, OutputStream out) throws IOException {
+        out.write(GZIP_HEADER);
+        IOUtils.copy(deflated, out);
+        writeIntLE(out, crc);
+        // the size is kept modulo 2^32
+        writeIntLE(out, size);
+    }
+
+    /**
+     * Writes the gzip compressed variant of a file atomically.
+     */
+    static void compress(File file, File gzip) throws IOException {
+        File tmp = File.createTempFile(gzip.getName(), ".tmp", gzip.getParentFile());
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp));
+                try {
+                    IOUtils.copy(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            Files.move(tmp.toPath(), gzip.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static void setGzipHeaders(StaplerRequest req, StaplerResponse rsp, long length, long lastModified, String path) {
+        String type = req.getServletContext().getMimeType(path);
+        rsp.setContentType(type != null ? type : "application/octet-stream");
+        setContentSecurityPolicy(rsp);
+        rsp.setHeader("Content-Encoding", "gzip");
+        rsp.setHeader("Content-Length", Long.toString(length));
+        if (lastModified > 0) {
+            rsp.setDateHeader("Last-Modified", lastModified);
+        }
+    }
+
+    /**
+     * Sets the Content-Security-Policy {@link DirectoryBrowserSupport} sends
+     * with the files it serves, as the report HTML is not trusted.
+     */
+    static void setContentSecurityPolicy(StaplerResponse rsp) {
+        String csp = SystemProperties.getString(DirectoryBrowserSupport.CSP_PROPERTY_NAME,
+                DirectoryBrowserSupport.DEFAULT_CSP_VALUE);
+        if (!csp.trim().isEmpty()) {
+            rsp.setHeader("Content-Security-Policy", csp);
+            rsp.setHeader("X-WebKit-CSP", csp);
+            rsp.setHeader("X-Content-Security-Policy", csp);
+        }
+    }
+
+    private static void writeIntLE(OutputStream out, long value) throws IOException {
+        out.write((int) value & 0xff);
+        out.write((int) (value >>> 8) & 0xff);
+        out.write((int) (value >>> 16) & 0xff);
+        out.write((int) (value >>> 24) & 0xff);
+    }
+}
@@ -0,0 +1,146 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Lists the report files of a build stored in the {@link BlobStore} of the
+ * job, mapping every relative path to the hash of its content, and serves
+ * them from there with the hash as entity tag, see {@link ReportHttpCache}.
+ * A missing blob is served as a missing file.
+ */
+class ReportManifest extends ReportTree {
+
+    static final String EXTENSION = ".manifest";
+
+    private static final int MAGIC = 0x53484d46;
+    private static final int VERSION = 1;
+
+    private final File blobDir;
+    private final Map<String, Entry> entries;
+
+    ReportManifest(File blobDir, Map<String, Entry> entries) {
+        super(blobDir);
+        this.blobDir = blobDir;
+        this.entries = entries;
+    }
+
+    /**
+     * Gets the manifest belonging to the given reports directory.
+     */
+    static File forReportsDir(File seleniumReportsDir) {
+        return new File(seleniumReportsDir.getParentFile(), seleniumReportsDir.getName() + EXTENSION);
+    }
+
+    Collection<Entry> getEntries() {
+        return this.entries.values();
+    }
+
+    static ReportManifest read(File file, File blobDir) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown manifest format: " + file);
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                Entry e = new Entry(in.readUTF(), in.readUTF(), in.readLong(), in.readLong());
+                entries.put(e.path, e);
+            }
+        } finally {
+            in.close();
+        }
+        return new ReportManifest(blobDir, entries);
+    }
+
+    void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.entries.size());
+            for (Entry e : this.entries.values()) {
+                out.writeUTF(e.path);
+                out.writeUTF(e.hash);
+                out.writeLong(e.size);
+                out.writeLong(e.lastModified);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    Collection<String> getPaths() {
+        return this.entries.keySet();
+    }
+
+    @Override
+    boolean isFile(String path) {
+        Entry entry = this.entries.get(path);
+        return entry != null && BlobStore.getBlobFile(this.blobDir, entry.hash).isFile();
+    }
+
+    @Override
+    long length(String path) {
+        return this.entries.get(path).size;
+    }
+
+    @Override
+    long lastModified(String path) {
+        return this.entries.get(path).lastModified;
+    }
+
+    @Override
+    InputStream open(String path) throws IOException {
+        return new FileInputStream(BlobStore.getBlobFile(this.blobDir, this.entries.get(path).hash));
+    }
+
+    @Override
+    boolean serveCached(StaplerRequest req, StaplerResponse rsp, String path) throws IOException {
+        Entry entry = this.entries.get(path);
+        boolean gzip = ReportHttpCache.useGzip(req, rsp, path);
+        if (ReportHttpCache.isNotModified(req, rsp, ReportHttpCache.etag(entry.hash + (gzip ? "-gz" : "")), true)) {
+            return true;
+        }
+        if (gzip) {
+            File compressed = BlobStore.getCompressedBlobFile(this.blobDir, entry.hash);
+            if (compressed != null) {
+                ReportHttpCache.serveGzip(req, rsp, compressed, entry.lastModified, entry.path);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static final class Entry {
+        final String path;
+        final String hash;
+        final long size;
+        final long lastModified;
+
+        Entry(String path, String hash, long size, long lastModified) {
+            this.path = path;
+            this.hash = hash;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
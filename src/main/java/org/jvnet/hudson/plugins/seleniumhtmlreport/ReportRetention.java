@@ -0,0 +1,191 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Keeps the raw html reports of only the newest builds of a job. The parsed
+ * results, failures and summaries of all builds stay, only the
+ * {@code seleniumReports} directory, archive or manifest of older builds is removed
+ * and replaced by a {@code seleniumReports.purged} marker.
+ * <p>
+ * Like the log rotation of the job, builds marked to be kept forever keep
+ * their reports too. They count towards the newest builds to keep.
+ * <p>
+ * The number of builds to keep is stored per job by the publisher, so the
+ * background {@link PurgeWork} finds it without loading any build. It also
+ * compacts the {@link SummaryIndex} of every job.
+ */
+final class ReportRetention {
+
+    static final String FILE_NAME = "retention";
+
+    static final String REPORTS_DIR_NAME = "seleniumReports";
+
+    private static final String PURGED_EXTENSION = ".purged";
+
+    private ReportRetention() {
+    }
+
+    static File getFile(Job<?, ?> job) {
+        return JobStorage.getFile(job, FILE_NAME);
+    }
+
+    /**
+     * Stores the number of builds whose reports are kept, {@code 0} keeps the
+     * reports of all builds.
+     */
+    static void save(Job<?, ?> job, int keepReports) throws IOException {
+        File file = getFile(job);
+        synchronized (JobStorage.lockFor(file.getParentFile())) {
+            if (keepReports <= 0) {
+                Files.deleteIfExists(file.toPath());
+            } else if (load(job) != keepReports) {
+                file.getParentFile().mkdirs();
+                Files.write(file.toPath(), Integer.toString(keepReports).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    static int load(Job<?, ?> job) throws IOException {
+        try {
+            String s = new String(Files.readAllBytes(getFile(job).toPath()), StandardCharsets.US_ASCII).trim();
+            return Integer.parseInt(s);
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static File getPurgedMarker(File seleniumReportsDir) {
+        return new File(seleniumReportsDir.getParentFile(), seleniumReportsDir.getName() + PURGED_EXTENSION);
+    }
+
+    static boolean isPurged(File seleniumReportsDir) {
+        return getPurgedMarker(seleniumReportsDir).isFile();
+    }
+
+    /**
+     * Removes the reports of all but the newest {@code keep} builds of the
+     * job which still have them. The build directories are walked and only
+     * the builds past the limit are loaded, to skip those kept forever.
+     *
+     * @return the number of builds whose reports were removed
+     */
+    static int purge(Job<?, ?> job, int keep, TaskListener listener) throws IOException, InterruptedException {
+        List<Integer> numbers = new ArrayList<Integer>();
+        String[] names = job.getBuildDir().list();
+        if (names == null) {
+            return 0;
+        }
+        for (String name : names) {
+            try {
+                int number = Integer.parseInt(name);
+                File reportsDir = getReportsDir(job, number);
+                if (reportsDir.isDirectory() || ReportArchive.forReportsDir(reportsDir).isFile()
+                        || ReportManifest.forReportsDir(reportsDir).isFile()) {
+                    numbers.add(number);
+                }
+            } catch (NumberFormatException e) {
+                // a symlink like lastSuccessfulBuild or some other file
+            }
+        }
+        Collections.sort(numbers, Collections.<Integer>reverseOrder());
+        int purged = 0;
+        for (int i = keep; i < numbers.size(); i++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            Run<?, ?> run = job.getBuildByNumber(numbers.get(i));
+            if (run != null && run.isKeepLog()) {
+                continue;
+            }
+            File buildDir = new File(job.getBuildDir(), Integer.toString(numbers.get(i)));
+            for (File shardRoot : ReportShards.getRoots(buildDir)) {
+                File reportsDir = new File(shardRoot, REPORTS_DIR_NAME);
+                // the marker goes first, so a half deleted directory is never served
+                Files.write(getPurgedMarker(reportsDir).toPath(), new byte[0]);
+                Files.deleteIfExists(ReportArchive.forReportsDir(reportsDir).toPath());
+                BlobStore.release(job, ReportManifest.forReportsDir(reportsDir));
+                Util.deleteRecursive(reportsDir);
+            }
+            purged++;
+        }
+        if (purged > 0) {
+            listener.getLogger().println("Purged the selenium reports of " + purged + " builds of " + job.getFullName());
+        }
+        return purged;
+    }
+
+    private static File getReportsDir(Job<?, ?> job, int number) {
+        return new File(new File(job.getBuildDir(), Integer.toString(number)), REPORTS_DIR_NAME);
+    }
+
+    /**
+     * Purges the reports of all jobs with a retention limit and compacts the
+     * summary indexes, on a thread of the lowest priority.
+     */
+    @Extension
+    public static final class PurgeWork extends AsyncPeriodicWork {
+
+        private static final long RECURRENCE_MINUTES = SystemProperties.getLong(
+                ReportRetention.class.getName() + ".recurrenceMinutes", 60L);
+
+        public PurgeWork() {
+            super("Selenium report retention");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(RECURRENCE_MINUTES);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            Thread thread = Thread.currentThread();
+            int priority = thread.getPriority();
+            thread.setPriority(Thread.MIN_PRIORITY);
+            try {
+                for (Job<?, ?> job : Jenkins.get().allItems(Job.class)) {
+                    if (SummaryIndex.getFile(job).isFile()) {
+                        try {
+                            SummaryIndex.compact(job);
+                        } catch (IOException e) {
+                            listener.error("Unable to compact the selenium summaries of " + job.getFullName() + ": " + e);
+                        }
+                    }
+                    if (!getFile(job).isFile()) {
+                        continue;
+                    }
+                    int keep = load(job);
+                    if (keep > 0) {
+                        try {
+                            purge(job, keep, listener);
+                        } catch (IOException e) {
+                            listener.error("Unable to purge the selenium reports of " + job.getFullName() + ": " + e);
+                        }
+                    }
+                }
+            } finally {
+                thread.setPriority(priority);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import hudson.Util;
+
+/**
+ * Lets several publishes within one build, like parallel pipeline branches
+ * each running a shard of the suites, store their reports side by side.
+ * <p>
+ * Every publish claims the lowest shard number neither stored in the build
+ * nor claimed by a running publish, and only claiming is serialized. Shard
+ * {@code 0} keeps its files directly in the build directory, as builds with a
+ * single publish always did, so they get no shard directory at all. The files
+ * of shard {@code n} live in {@code seleniumShards/n}, created by the claim,
+ * and are linked as {@code shard-n/<path>}. A publish that does not complete
+ * releases its claim and removes its shard directory.
+ */
+final class ReportShards {
+
+    static final String DIR_NAME = "seleniumShards";
+
+    private static final String PREFIX = "shard-";
+
+    /** Shards claimed by running publishes, per build directory. */
+    private static final Map<File, Set<Integer>> CLAIMED = new HashMap<File, Set<Integer>>();
+
+    private ReportShards() {
+    }
+
+    /**
+     * Claims the lowest shard number not used yet by the build, to be
+     * released with {@link #release(File, int, boolean)} once the publish is
+     * done.
+     */
+    static int claim(File buildRootDir) throws IOException {
+        synchronized (CLAIMED) {
+            Set<Integer> claimed = CLAIMED.get(buildRootDir);
+            if (claimed == null) {
+                claimed = new HashSet<Integer>();
+                CLAIMED.put(buildRootDir, claimed);
+            }
+            int shard = 0;
+            while (claimed.contains(shard) || isStored(buildRootDir, shard)) {
+                shard++;
+            }
+            File root = getRoot(buildRootDir, shard);
+            if (shard > 0 && !root.mkdirs()) {
+                throw new IOException("Unable to create " + root);
+            }
+            claimed.add(shard);
+            return shard;
+        }
+    }
+
+    /**
+     * Releases a claimed shard. The directory of a further shard whose
+     * publish did not complete is removed, so the number can be claimed
+     * again.
+     */
+    static void release(File buildRootDir, int shard, boolean published) throws IOException {
+        synchronized (CLAIMED) {
+            try {
+                if (!published && shard > 0) {
+                    Util.deleteRecursive(getRoot(buildRootDir, shard));
+                    // only removed if no other shard is left
+                    new File(buildRootDir, DIR_NAME).delete();
+                }
+            } finally {
+                Set<Integer> claimed = CLAIMED.get(buildRootDir);
+                if (claimed != null && claimed.remove(shard) && claimed.isEmpty()) {
+                    CLAIMED.remove(buildRootDir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a completed publish stored the given shard; shard {@code 0} is
+     * taken once its results are written.
+     */
+    private static boolean isStored(File buildRootDir, int shard) {
+        return shard == 0 ? TestResultStore.getResultsFile(buildRootDir).exists() : getRoot(buildRootDir, shard).isDirectory();
+    }
+
+    /**
+     * Gets the directory holding the files of the given shard.
+     */
+    static File getRoot(File buildRootDir, int shard) {
+        return shard == 0 ? buildRootDir : new File(new File(buildRootDir, DIR_NAME), Integer.toString(shard));
+    }
+
+    /**
+     * Gets the directories of all shards of the build, shard {@code 0} first.
+     */
+    static List<File> getRoots(File buildRootDir) {
+        TreeMap<Integer, File> shards = new TreeMap<Integer, File>();
+        shards.put(0, buildRootDir);
+        String[] names = new File(buildRootDir, DIR_NAME).list();
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    int shard = Integer.parseInt(name);
+                    if (shard > 0) {
+                        shards.put(shard, getRoot(buildRootDir, shard));
+                    }
+                } catch (NumberFormatException e) {
+                    // not a shard
+                }
+            }
+        }
+        return new ArrayList<File>(shards.values());
+    }
+
+    /**
+     * Gets the prefix of the paths of the files of the given shard, as they
+     * are linked from the report page.
+     */
+    static String getPathPrefix(int shard) {
+        return shard == 0 ? "" : PREFIX + shard + "/";
+    }
+
+    /**
+     * Removes the {@code shard-n/} prefix from the path of a file of a
+     * further shard.
+     */
+    static String stripPathPrefix(String path) {
+        int slash = path.indexOf('/');
+        if (slash > 0 && parsePathSegment(path.substring(0, slash)) > 0) {
+            return path.substring(slash + 1);
+        }
+        return path;
+    }
+
+    /**
+     * Gets the shard number of a {@code shard-n} path segment, or {@code -1}.
+     */
+    static int parsePathSegment(String segment) {
+        if (segment == null || !segment.startsWith(PREFIX)) {
+            return -1;
+        }
+        try {
+            int shard = Integer.parseInt(segment.substring(PREFIX.length()));
+            return shard > 0 ? shard : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
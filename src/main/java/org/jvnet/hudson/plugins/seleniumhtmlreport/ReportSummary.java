@@ -0,0 +1,97 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.Serializable;
+
+/**
+ * Immutable totals over all {@link TestResult}s of a build.
+ */
+public final class ReportSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final ReportSummary EMPTY = new ReportSummary(0, 0, 0, 0, 0, 0);
+
+    private final int testPasses;
+    private final int testFailures;
+    private final int commandPasses;
+    private final int commandFailures;
+    private final int commandErrors;
+    private final int totalTime;
+
+    public ReportSummary(int testPasses, int testFailures, int commandPasses, int commandFailures,
+            int commandErrors, int totalTime) {
+        super();
+        this.testPasses = testPasses;
+        this.testFailures = testFailures;
+        this.commandPasses = commandPasses;
+        this.commandFailures = commandFailures;
+        this.commandErrors = commandErrors;
+        this.totalTime = totalTime;
+    }
+
+    public static ReportSummary of(Iterable<TestResult> results) {
+        int testPasses = 0;
+        int testFailures = 0;
+        int commandPasses = 0;
+        int commandFailures = 0;
+        int commandErrors = 0;
+        int totalTime = 0;
+        for (TestResult r : results) {
+            testPasses += r.getNumTestPasses();
+            testFailures += r.getNumTestFailures();
+            commandPasses += r.getNumCommandPasses();
+            commandFailures += r.getNumCommandFailures();
+            commandErrors += r.getNumCommandErrors();
+            totalTime += r.getTotalTime();
+        }
+        return new ReportSummary(testPasses, testFailures, commandPasses, commandFailures, commandErrors, totalTime);
+    }
+
+    public ReportSummary plus(ReportSummary other) {
+        return new ReportSummary(this.testPasses + other.testPasses, this.testFailures + other.testFailures,
+                this.commandPasses + other.commandPasses, this.commandFailures + other.commandFailures,
+                this.commandErrors + other.commandErrors, this.totalTime + other.totalTime);
+    }
+
+    public int getTestPasses() {
+        return this.testPasses;
+    }
+
+    public int getTestFailures() {
+        return this.testFailures;
+    }
+
+    public int getTestTotal() {
+        return this.testPasses + this.testFailures;
+    }
+
+    public int getCommandPasses() {
+        return this.commandPasses;
+    }
+
+    public int getCommandFailures() {
+        return this.commandFailures;
+    }
+
+    public int getCommandErrors() {
+        return this.commandErrors;
+    }
+
+    public int getCommandTotal() {
+        return this.commandPasses + this.commandFailures + this.commandErrors;
+    }
+
+    /**
+     * Total duration in seconds.
+     */
+    public int getTotalTime() {
+        return this.totalTime;
+    }
+
+    @Override
+    public String toString() {
+        return "tests " + this.testPasses + "/" + getTestTotal() + " passed, commands " + this.commandPasses
+                + " passed, " + this.commandFailures + " failed, " + this.commandErrors + " errors, "
+                + this.totalTime + " s";
+    }
+}
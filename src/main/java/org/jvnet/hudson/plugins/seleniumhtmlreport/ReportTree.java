@@ -0,0 +1,192 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.servlet.ServletException;
+
+import hudson.Util;
+import hudson.model.DirectoryBrowserSupport;
+import hudson.model.ModelObject;
+import jenkins.util.VirtualFile;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * The report files of a build kept in a single file, the zip archive or the
+ * manifest, as a read only tree. They are served through
+ * {@link DirectoryBrowserSupport} like loose reports, which applies the
+ * Content-Security-Policy and resource root URL of Jenkins to the untrusted
+ * report HTML and lists directories. Only cached and compressed
+ * representations, see {@link ReportHttpCache}, are answered directly.
+ */
+abstract class ReportTree {
+
+    private final File file;
+    private volatile Set<String> dirs;
+
+    ReportTree(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Gets the relative paths of all files of the tree.
+     */
+    abstract Collection<String> getPaths();
+
+    abstract boolean isFile(String path);
+
+    abstract long length(String path);
+
+    abstract long lastModified(String path);
+
+    abstract InputStream open(String path) throws IOException;
+
+    /**
+     * Answers a request for a file of the tree from the cache of the client
+     * or with a compressed representation.
+     *
+     * @return whether the response is complete
+     */
+    abstract boolean serveCached(StaplerRequest req, StaplerResponse rsp, String path) throws IOException;
+
+    HttpResponse serve(final ModelObject owner) {
+        return new HttpResponse() {
+            public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException, ServletException {
+                String path = Util.rawDecode(req.getRestOfPath());
+                while (path.startsWith("/")) {
+                    path = path.substring(1);
+                }
+                if (isFile(path) && serveCached(req, rsp, path)) {
+                    return;
+                }
+                new DirectoryBrowserSupport(owner, new Node(""), "seleniumhtmlreport", "clipboard.gif", false)
+                        .generateResponse(req, rsp, node);
+            }
+        };
+    }
+
+    private Set<String> getDirs() {
+        Set<String> d = this.dirs;
+        if (d == null) {
+            d = new HashSet<String>();
+            d.add("");
+            for (String path : getPaths()) {
+                for (int slash = path.indexOf('/'); slash > 0; slash = path.indexOf('/', slash + 1)) {
+                    d.add(path.substring(0, slash));
+                }
+            }
+            this.dirs = d;
+        }
+        return d;
+    }
+
+    private final class Node extends VirtualFile {
+        private final String path;
+
+        Node(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public String getName() {
+            return this.path.substring(this.path.lastIndexOf('/') + 1);
+        }
+
+        @Override
+        public URI toURI() {
+            try {
+                return new URI("jar", file.toURI() + "!/" + this.path, null);
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public VirtualFile getParent() {
+            if (this.path.isEmpty()) {
+                return null;
+            }
+            int slash = this.path.lastIndexOf('/');
+            return new Node(slash < 0 ? "" : this.path.substring(0, slash));
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return getDirs().contains(this.path);
+        }
+
+        @Override
+        public boolean isFile() {
+            return ReportTree.this.isFile(this.path);
+        }
+
+        @Override
+        public boolean exists() {
+            return isFile() || isDirectory();
+        }
+
+        @Override
+        public VirtualFile[] list() {
+            if (!isDirectory()) {
+                return new VirtualFile[0];
+            }
+            String prefix = this.path.isEmpty() ? "" : this.path + "/";
+            Set<String> children = new TreeSet<String>();
+            for (String p : getPaths()) {
+                if (p.startsWith(prefix) && p.length() > prefix.length()) {
+                    int slash = p.indexOf('/', prefix.length());
+                    children.add(slash < 0 ? p : p.substring(0, slash));
+                }
+            }
+            VirtualFile[] list = new VirtualFile[children.size()];
+            int i = 0;
+            for (String child : children) {
+                list[i++] = new Node(child);
+            }
+            return list;
+        }
+
+        @Override
+        public VirtualFile child(String name) {
+            while (name.startsWith("/")) {
+                name = name.substring(1);
+            }
+            while (name.endsWith("/")) {
+                name = name.substring(0, name.length() - 1);
+            }
+            return new Node(this.path.isEmpty() ? name : name.isEmpty() ? this.path : this.path + "/" + name);
+        }
+
+        @Override
+        public long length() {
+            return isFile() ? ReportTree.this.length(this.path) : 0;
+        }
+
+        @Override
+        public long lastModified() {
+            return isFile() ? ReportTree.this.lastModified(this.path) : 0;
+        }
+
+        @Override
+        public boolean canRead() {
+            return exists();
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            if (!isFile()) {
+                throw new FileNotFoundException(this.path);
+            }
+            return ReportTree.this.open(this.path);
+        }
+    }
+}
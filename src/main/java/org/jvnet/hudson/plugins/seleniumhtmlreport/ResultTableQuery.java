@@ -0,0 +1,216 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * One page of the results table, filtered by status and name and sorted by
+ * any column. Only the rows of the requested page are turned into JSON. The
+ * sorted orders of the results and the rows matching the last query are kept
+ * in {@link Views}, so paging through a table sorts it once.
+ */
+class ResultTableQuery {
+
+    static final int DEFAULT_SIZE = 50;
+    static final int MAX_SIZE = 1000;
+
+    private final int start;
+    private final int size;
+    private final String sort;
+    private final boolean descending;
+    private final String status;
+    private final String filter;
+
+    ResultTableQuery(int start, int size, String sort, boolean descending, String status, String filter) {
+        this.start = Math.max(0, start);
+        this.size = Math.max(1, Math.min(MAX_SIZE, size));
+        this.sort = sort;
+        this.descending = descending;
+        this.status = status == null || status.isEmpty() ? null : status;
+        this.filter = filter == null || filter.isEmpty() ? null : filter.toLowerCase(Locale.ENGLISH);
+    }
+
+    static ResultTableQuery from(StaplerRequest req) {
+        return new ResultTableQuery(intParam(req, "start", 0), intParam(req, "size", DEFAULT_SIZE),
+                req.getParameter("sort"), "desc".equals(req.getParameter("order")),
+                req.getParameter("status"), req.getParameter("q"));
+    }
+
+    private static int intParam(StaplerRequest req, String name, int defaultValue) {
+        String value = req.getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    JSONObject execute(Views views) {
+        List<TestResult> selected = views.select(this);
+        JSONArray rows = new JSONArray();
+        for (int i = this.start; i < selected.size() && i < this.start + this.size; i++) {
+            rows.add(toJson(selected.get(i)));
+        }
+        JSONObject page = new JSONObject();
+        page.put("total", views.results.size());
+        page.put("matching", selected.size());
+        page.put("start", this.start);
+        page.put("size", this.size);
+        page.put("results", rows);
+        return page;
+    }
+
+    private List<Object> getSelection() {
+        return Arrays.<Object>asList(this.sort, this.descending, this.status, this.filter);
+    }
+
+    private boolean matches(TestResult r) {
+        if (this.status != null && !this.status.equals(r.getResult())) {
+            return false;
+        }
+        return this.filter == null || r.getResultFileName().toLowerCase(Locale.ENGLISH).contains(this.filter);
+    }
+
+    private static JSONObject toJson(TestResult r) {
+        JSONObject row = new JSONObject();
+        row.put("resultFileName", r.getResultFileName());
+        row.put("result", r.getResult());
+        row.put("numTestTotal", r.getNumTestTotal());
+        row.put("numTestPasses", r.getNumTestPasses());
+        row.put("numTestFailures", r.getNumTestFailures());
+        row.put("numCommandPasses", r.getNumCommandPasses());
+        row.put("numCommandFailures", r.getNumCommandFailures());
+        row.put("numCommandErrors", r.getNumCommandErrors());
+        row.put("totalTime", r.getTotalTime());
+        return row;
+    }
+
+    private static Comparator<TestResult> comparatorFor(String column) {
+        if (column == null) {
+            return null;
+        }
+        if ("resultFileName".equals(column)) {
+            return new Comparator<TestResult>() {
+                public int compare(TestResult a, TestResult b) {
+                    return a.getResultFileName().compareTo(b.getResultFileName());
+                }
+            };
+        }
+        if ("result".equals(column)) {
+            return new Comparator<TestResult>() {
+                public int compare(TestResult a, TestResult b) {
+                    return String.valueOf(a.getResult()).compareTo(String.valueOf(b.getResult()));
+                }
+            };
+        }
+        final int counter = counterIndex(column);
+        if (counter < 0) {
+            return null;
+        }
+        return new Comparator<TestResult>() {
+            public int compare(TestResult a, TestResult b) {
+                return Integer.compare(counter(a, counter), counter(b, counter));
+            }
+        };
+    }
+
+    private static final String[] COUNTERS = {
+        "numTestTotal", "numTestPasses", "numTestFailures", "numCommandPasses",
+        "numCommandFailures", "numCommandErrors", "totalTime"
+    };
+
+    private static int counterIndex(String column) {
+        for (int i = 0; i < COUNTERS.length; i++) {
+            if (COUNTERS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int counter(TestResult r, int index) {
+        switch (index) {
+            case 0: return r.getNumTestTotal();
+            case 1: return r.getNumTestPasses();
+            case 2: return r.getNumTestFailures();
+            case 3: return r.getNumCommandPasses();
+            case 4: return r.getNumCommandFailures();
+            case 5: return r.getNumCommandErrors();
+            default: return r.getTotalTime();
+        }
+    }
+
+    /**
+     * The sorted orders of one list of results, each computed on first use,
+     * and the rows matching the last query.
+     */
+    static final class Views {
+        private final List<TestResult> results;
+        /** By column, with " desc" appended for descending order. */
+        private final ConcurrentMap<String, List<TestResult>> sorted = new ConcurrentHashMap<String, List<TestResult>>();
+        private volatile Selection last;
+
+        Views(List<TestResult> results) {
+            this.results = results;
+        }
+
+        boolean isOf(List<TestResult> results) {
+            return this.results == results;
+        }
+
+        List<TestResult> select(ResultTableQuery query) {
+            List<Object> key = query.getSelection();
+            Selection s = this.last;
+            if (s != null && s.key.equals(key)) {
+                return s.rows;
+            }
+            List<TestResult> rows = new ArrayList<TestResult>();
+            // the sort is stable, so filtering the sorted results gives the same order as sorting the matches
+            for (TestResult r : sorted(query.sort, query.descending)) {
+                if (query.matches(r)) {
+                    rows.add(r);
+                }
+            }
+            this.last = new Selection(key, rows);
+            return rows;
+        }
+
+        private List<TestResult> sorted(String column, boolean descending) {
+            Comparator<TestResult> comparator = comparatorFor(column);
+            if (comparator == null) {
+                return this.results;
+            }
+            String key = descending ? column + " desc" : column;
+            List<TestResult> s = this.sorted.get(key);
+            if (s == null) {
+                s = new ArrayList<TestResult>(this.results);
+                Collections.sort(s, descending ? Collections.reverseOrder(comparator) : comparator);
+                this.sorted.put(key, s);
+            }
+            return s;
+        }
+    }
+
+    private static final class Selection {
+        final List<Object> key;
+        final List<TestResult> rows;
+
+        Selection(List<Object> key, List<TestResult> rows) {
+            this.key = key;
+            this.rows = rows;
+        }
+    }
+}
@@ -2,13 +2,25 @@ package org.jvnet.hudson.plugins.seleniumhtmlreport;
 
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 
 import hudson.FilePath;
 import hudson.model.DirectoryBrowserSupport;
 import hudson.model.Run;
 import jenkins.model.RunAction2;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
@@ -19,14 +31,35 @@ public class SeleniumHtmlReportAction implements Serializable, RunAction2 {
 
     private static final long serialVersionUID = 1L;
 
+    private static final Logger LOGGER = Logger.getLogger(SeleniumHtmlReportAction.class.getName());
+
     private transient Run<?, ?> build;
-    private final List<TestResult> results;
+    /**
+     * Only set for builds recorded before the results were moved into the
+     * {@link TestResultStore}.
+     */
+    private List<TestResult> results;
+    private transient volatile SoftReference<List<TestResult>> storedResults;
+    /** Indexes of the report archives and manifests of the shards, by file. */
+    private transient volatile Map<File, SoftReference<IndexedTree>> reportTrees;
+    private transient volatile SoftReference<ResultTableQuery.Views> tableViews;
     private final File seleniumReportsDir;
+    private volatile ReportSummary summary;
+    private PublishTimings timings;
 
+    /**
+     * Creates the action for results which have already been written with
+     * {@link TestResultStore#write(File, List)} into the build directory.
+     */
     public SeleniumHtmlReportAction(List<TestResult> results, File seleniumReportsDir) {
+        this(results, seleniumReportsDir, ReportSummary.of(results));
+    }
+
+    SeleniumHtmlReportAction(List<TestResult> results, File seleniumReportsDir, ReportSummary summary) {
         super();
-        this.results = results;
+        this.storedResults = new SoftReference<List<TestResult>>(results);
         this.seleniumReportsDir = seleniumReportsDir;
+        this.summary = summary;
     }
 
     public String getIconFileName() {
@@ -46,92 +79,311 @@ public class SeleniumHtmlReportAction implements Serializable, RunAction2 {
     }
 
     public List<TestResult> getResults() {
-        return this.results;
+        if (this.results != null) {
+            return this.results;
+        }
+        SoftReference<List<TestResult>> ref = this.storedResults;
+        List<TestResult> r = ref != null ? ref.get() : null;
+        if (r == null) {
+            File rootDir = getRootDir();
+            try {
+                r = TestResultStore.readAll(rootDir);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read selenium results of " + rootDir, e);
+                return Collections.emptyList();
+            }
+            this.storedResults = new SoftReference<List<TestResult>>(r);
+        }
+        return r;
     }
 
-    public int getSumTestPasses() {
-        return calculateSumOf(new TestResultValueProvider() {
-            public int getValueOf(final TestResult result) {
-                return result.getNumTestPasses();
+    /**
+     * Gets the failed command rows of all result files, read with one
+     * sequential scan of the {@link FailureStore} of every shard of the build.
+     */
+    public List<CommandFailure> getFailures() {
+        List<CommandFailure> failures = new ArrayList<CommandFailure>();
+        for (File root : ReportShards.getRoots(getRootDir())) {
+            File file = FailureStore.getFailuresFile(root);
+            try {
+                failures.addAll(FailureStore.read(file));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read selenium failures from " + file, e);
+                return Collections.emptyList();
             }
-        });
+        }
+        return failures;
     }
 
-    @Override
-    public void onAttached(Run<?, ?> build) {
-        this.build = build;
+    private File getRootDir() {
+        return this.build != null ? this.build.getRootDir() : this.seleniumReportsDir.getParentFile();
     }
 
-    @Override
-    public void onLoad(Run<?, ?> build) {
-        this.build = build;
+    /**
+     * Gets the totals over all results. Builds recorded before the totals
+     * were persisted compute them on first access and save them with the
+     * build, so this happens only once.
+     */
+    public ReportSummary getSummary() {
+        ReportSummary s = this.summary;
+        if (s == null) {
+            s = ReportSummary.of(getResults());
+            this.summary = s;
+            Run<?, ?> b = this.build;
+            if (b != null && !b.isBuilding()) {
+                try {
+                    b.save();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Unable to save the selenium summary of " + b, e);
+                }
+            }
+        }
+        return s;
     }
 
-    protected interface TestResultValueProvider {
-        int getValueOf(TestResult result);
+    /**
+     * Gets the time spent publishing the report, {@code null} for builds
+     * recorded before the timings were kept.
+     */
+    public PublishTimings getTimings() {
+        return this.timings;
     }
 
-    protected int calculateSumOf(TestResultValueProvider values) {
-        int sum = 0;
-        for (TestResult r : this.results) {
-            sum = sum + values.getValueOf(r);
-        }
-        return sum;
+    void setTimings(PublishTimings timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * Adds the totals of another shard published into the same build, whose
+     * results were already written into its shard directory.
+     */
+    void merge(ReportSummary shardSummary) {
+        this.summary = getSummary().plus(shardSummary);
+        this.storedResults = null;
+    }
+
+    public int getSumTestPasses() {
+        return getSummary().getTestPasses();
     }
 
     public int getSumTestFailures() {
-        return calculateSumOf(new TestResultValueProvider() {
-            public int getValueOf(final TestResult result) {
-                return result.getNumTestFailures();
-            }
-        });
+        return getSummary().getTestFailures();
     }
 
     public int getSumCommandPasses() {
-        return calculateSumOf(new TestResultValueProvider() {
-            public int getValueOf(final TestResult result) {
-                return result.getNumCommandPasses();
-            }
-        });
+        return getSummary().getCommandPasses();
     }
 
     public int getSumCommandFailures() {
-        return calculateSumOf(new TestResultValueProvider() {
-            public int getValueOf(final TestResult result) {
-                return result.getNumCommandFailures();
-            }
-        });
+        return getSummary().getCommandFailures();
     }
 
     public int getSumCommandErrors() {
-        return calculateSumOf(new TestResultValueProvider() {
-            public int getValueOf(final TestResult result) {
-                return result.getNumCommandErrors();
-            }
-        });
+        return getSummary().getCommandErrors();
     }
 
     public int getSumTestTotal() {
-        return calculateSumOf(new TestResultValueProvider() {
-            public int getValueOf(final TestResult result) {
-                return result.getNumTestTotal();
-            }
-        });
+        return getSummary().getTestTotal();
     }
 
     public int getTotalTime() {
-        return calculateSumOf(new TestResultValueProvider() {
-            public int getValueOf(final TestResult result) {
-                return result.getTotalTime();
+        return getSummary().getTotalTime();
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> build) {
+        this.build = build;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> build) {
+        this.build = build;
+    }
+
+    /**
+     * Gets the number of the newest earlier build with selenium results,
+     * {@code 0} if there is none.
+     */
+    public int getPreviousBuildNumber() {
+        int previous = 0;
+        if (this.build != null) {
+            try {
+                SummaryIndex.Entry e = SummaryIndex.readPrevious(this.build.getParent(), this.build.getNumber());
+                if (e != null) {
+                    previous = e.buildNumber;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read selenium summaries of " + this.build.getParent().getFullName(), e);
             }
-        });
+        }
+        return previous;
+    }
+
+    /**
+     * Compares the results with those of a baseline build, by default the
+     * previous build with results. {@code slower} is the duration increase
+     * from which a result file counts as much slower, blank to ignore
+     * durations. Returns {@code null} if the baseline has no results.
+     */
+    public ReportDiff getDiff(String baseline, String slower) {
+        if (this.build == null) {
+            return null;
+        }
+        int number;
+        try {
+            number = baseline != null ? Integer.parseInt(baseline.trim()) : getPreviousBuildNumber();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (number <= 0 || number == this.build.getNumber()) {
+            return null;
+        }
+        Threshold threshold;
+        try {
+            threshold = Threshold.parse(slower != null ? slower : ReportDiff.DEFAULT_SLOWER);
+        } catch (IllegalArgumentException e) {
+            threshold = Threshold.parse(ReportDiff.DEFAULT_SLOWER);
+        }
+        List<TestResult> baselineResults = getBaselineResults(number);
+        if (baselineResults == null) {
+            return null;
+        }
+        return ReportDiff.compute(getResults(), number, baselineResults, threshold);
+    }
+
+    /**
+     * Reads the results of another build of the job straight from its result
+     * store, without loading that build or any in between.
+     */
+    private List<TestResult> getBaselineResults(int number) {
+        File rootDir = new File(this.build.getParent().getBuildDir(), Integer.toString(number));
+        if (TestResultStore.exists(rootDir)) {
+            try {
+                return TestResultStore.readAll(rootDir);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read selenium results of " + rootDir, e);
+                return null;
+            }
+        }
+        // recorded before the results were moved out of the build record
+        Run<?, ?> run = this.build.getParent().getBuildByNumber(number);
+        SeleniumHtmlReportAction action = run != null ? run.getAction(SeleniumHtmlReportAction.class) : null;
+        return action != null ? action.getResults() : null;
+    }
+
+    /**
+     * Serves one page of the results table as JSON, see
+     * {@link ResultTableQuery#from(StaplerRequest)} for the parameters.
+     */
+    public void doTable(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        List<TestResult> results = getResults();
+        SoftReference<ResultTableQuery.Views> ref = this.tableViews;
+        ResultTableQuery.Views views = ref != null ? ref.get() : null;
+        if (views == null || !views.isOf(results)) {
+            views = new ResultTableQuery.Views(results);
+            this.tableViews = new SoftReference<ResultTableQuery.Views>(views);
+        }
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(ResultTableQuery.from(req).execute(views).toString());
+    }
+
+    /**
+     * Whether the raw reports of this build were removed by the
+     * {@link ReportRetention} of the job.
+     */
+    public boolean isReportsPurged() {
+        return ReportRetention.isPurged(this.seleniumReportsDir);
+    }
+
+    /**
+     * Serves the reports of the further shards of the build below
+     * {@code shard-n/}.
+     */
+    public HttpResponse getDynamic(String token, StaplerRequest req, StaplerResponse rsp) {
+        int shard = ReportShards.parsePathSegment(token);
+        if (this.build == null || shard < 0) {
+            return null;
+        }
+        File shardRoot = ReportShards.getRoot(this.build.getRootDir(), shard);
+        if (!shardRoot.isDirectory()) {
+            return null;
+        }
+        return serveReports(new File(shardRoot, this.seleniumReportsDir.getName()));
     }
 
-    public DirectoryBrowserSupport doDynamic(StaplerRequest req, StaplerResponse rsp) {
+    public HttpResponse doDynamic(StaplerRequest req, StaplerResponse rsp) {
         if (this.build != null) {
-            return new DirectoryBrowserSupport(this, new FilePath(this.seleniumReportsDir),
-                    "seleniumhtmlreport", "clipboard.gif", false);
+            return serveReports(this.seleniumReportsDir);
         }
         return null;
     }
+
+    private HttpResponse serveReports(final File reportsDir) {
+        if (ReportRetention.isPurged(reportsDir)) {
+            return HttpResponses.errorWithoutStack(HttpServletResponse.SC_GONE,
+                    "The raw selenium reports of this build were purged, only the parsed results are kept");
+        }
+        File manifest = ReportManifest.forReportsDir(reportsDir);
+        if (manifest.isFile()) {
+            try {
+                return getReportTree(manifest, true).serve(this);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read the selenium report manifest " + manifest, e);
+                return HttpResponses.error(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e);
+            }
+        }
+        File archive = ReportArchive.forReportsDir(reportsDir);
+        if (archive.isFile()) {
+            try {
+                return getReportTree(archive, false).serve(this);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read the selenium report archive " + archive, e);
+                return HttpResponses.error(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e);
+            }
+        }
+        final DirectoryBrowserSupport browser = new DirectoryBrowserSupport(this, new FilePath(reportsDir),
+                "seleniumhtmlreport", "clipboard.gif", false);
+        return new HttpResponse() {
+            public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException, ServletException {
+                File file = ReportHttpCache.resolve(reportsDir, req.getRestOfPath());
+                if (file != null && ReportHttpCache.isNotModified(req, rsp, ReportHttpCache.weakEtag(
+                        Long.toHexString(file.lastModified()) + "-" + Long.toHexString(file.length())), false)) {
+                    return;
+                }
+                browser.generateResponse(req, rsp, node);
+            }
+        };
+    }
+
+    /**
+     * Gets the index of a report archive or manifest, read once and then
+     * kept as long as the file is not modified and memory allows.
+     */
+    private ReportTree getReportTree(File file, boolean manifest) throws IOException {
+        Map<File, SoftReference<IndexedTree>> trees = this.reportTrees;
+        if (trees == null) {
+            trees = new ConcurrentHashMap<File, SoftReference<IndexedTree>>();
+            this.reportTrees = trees;
+        }
+        long lastModified = file.lastModified();
+        SoftReference<IndexedTree> ref = trees.get(file);
+        IndexedTree indexed = ref != null ? ref.get() : null;
+        if (indexed == null || indexed.lastModified != lastModified) {
+            ReportTree tree = manifest ? ReportManifest.read(file, BlobStore.getDir(this.build.getParent()))
+                    : ReportArchive.read(file);
+            indexed = new IndexedTree(tree, lastModified);
+            trees.put(file, new SoftReference<IndexedTree>(indexed));
+        }
+        return indexed.tree;
+    }
+
+    private static final class IndexedTree {
+        final ReportTree tree;
+        final long lastModified;
+
+        IndexedTree(ReportTree tree, long lastModified) {
+            this.tree = tree;
+            this.lastModified = lastModified;
+        }
+    }
 }
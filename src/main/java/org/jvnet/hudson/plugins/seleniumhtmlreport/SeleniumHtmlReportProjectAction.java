@@ -0,0 +1,280 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+import hudson.util.ShiftedCategoryAxis;
+import jenkins.model.TransientActionFactory;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.CategoryAxis;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.category.CategoryDataset;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Job level view of the selenium results, showing build over build trends read
+ * from the {@link SummaryIndex} of the job.
+ */
+public class SeleniumHtmlReportProjectAction implements Action {
+
+    private static final Logger LOGGER = Logger.getLogger(SeleniumHtmlReportProjectAction.class.getName());
+
+    /** Number of builds shown in the trends. */
+    private static final int MAX_BUILDS = 100;
+
+    /** Number of suite names offered when a search matches none exactly. */
+    private static final int MAX_SUITE_NAMES = 50;
+
+    private final Job<?, ?> job;
+
+    public SeleniumHtmlReportProjectAction(Job<?, ?> job) {
+        super();
+        this.job = job;
+    }
+
+    public String getIconFileName() {
+        return "/plugin/seleniumhtmlreport/icons/sla-48x48.png";
+    }
+
+    public String getDisplayName() {
+        return "Selenium Html Report Trend";
+    }
+
+    public String getUrlName() {
+        return "seleniumhtmlreport";
+    }
+
+    public Job<?, ?> getJob() {
+        return this.job;
+    }
+
+    public Graph getTestTrend() {
+        return new TrendGraph("tests") {
+            @Override
+            protected void add(DataSetBuilder<String, BuildLabel> dsb, ReportSummary s, BuildLabel label) {
+                dsb.add(s.getTestPasses(), "passes", label);
+                dsb.add(s.getTestFailures(), "failures", label);
+            }
+        };
+    }
+
+    public Graph getCommandTrend() {
+        return new TrendGraph("commands") {
+            @Override
+            protected void add(DataSetBuilder<String, BuildLabel> dsb, ReportSummary s, BuildLabel label) {
+                dsb.add(s.getCommandPasses(), "passes", label);
+                dsb.add(s.getCommandFailures(), "failures", label);
+                dsb.add(s.getCommandErrors(), "errors", label);
+            }
+        };
+    }
+
+    public Graph getDurationTrend() {
+        return new TrendGraph("seconds") {
+            @Override
+            protected void add(DataSetBuilder<String, BuildLabel> dsb, ReportSummary s, BuildLabel label) {
+                dsb.add(s.getTotalTime(), "duration", label);
+            }
+        };
+    }
+
+    /**
+     * Gets the rolling statistics of every result file, the most flaky first.
+     */
+    public List<SuiteStats.Suite> getSuites() {
+        try {
+            return SuiteStats.read(this.job);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read selenium suite statistics of " + this.job.getFullName(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Gets the inverted index of the suites, {@code null} while it is built.
+     */
+    public SuiteIndex getSuiteIndex() {
+        try {
+            return SuiteIndex.read(this.job);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read the selenium suite index of " + this.job.getFullName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the builds which still exist and ran the suite, the newest first.
+     */
+    public List<SuiteIndex.Occurrence> getHistory(SuiteIndex index, String suite, boolean failedOnly) {
+        List<SuiteIndex.Occurrence> history = new ArrayList<SuiteIndex.Occurrence>();
+        File buildDir = this.job.getBuildDir();
+        for (SuiteIndex.Occurrence o : index.getOccurrences(suite)) {
+            if ((o.isFailed() || !failedOnly) && new File(buildDir, Integer.toString(o.getBuildNumber())).isDirectory()) {
+                history.add(o);
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Serves the builds which ran a suite as JSON. Parameters are the
+     * {@code suite}, {@code failed=true} for its failures only, and the
+     * {@code limit} of builds returned, newest first. Without an exact match
+     * the names containing the parameter are returned as {@code suites}.
+     */
+    public void doFind(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        String suite = req.getParameter("suite");
+        boolean failedOnly = Boolean.parseBoolean(req.getParameter("failed"));
+        int limit = 100;
+        try {
+            limit = Integer.parseInt(req.getParameter("limit"));
+        } catch (NumberFormatException e) {
+            // keep the default
+        }
+        JSONObject result = new JSONObject();
+        result.put("suite", suite);
+        SuiteIndex index = getSuiteIndex();
+        result.put("indexing", index == null);
+        if (index != null) {
+            List<SuiteIndex.Occurrence> history = getHistory(index, suite, false);
+            int failures = 0;
+            JSONArray builds = new JSONArray();
+            for (SuiteIndex.Occurrence o : history) {
+                if (o.isFailed()) {
+                    failures++;
+                }
+                if (builds.size() < limit && (o.isFailed() || !failedOnly)) {
+                    JSONObject build = new JSONObject();
+                    build.put("number", o.getBuildNumber());
+                    build.put("result", o.isFailed() ? "failed" : "passed");
+                    builds.add(build);
+                }
+            }
+            result.put("runs", history.size());
+            result.put("failures", failures);
+            result.put("builds", builds);
+            if (history.isEmpty()) {
+                result.put("suites", index.findSuites(suite, MAX_SUITE_NAMES));
+            }
+        }
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(result.toString());
+    }
+
+    public int getMaxSuiteNames() {
+        return MAX_SUITE_NAMES;
+    }
+
+    private List<SummaryIndex.Entry> getEntries() {
+        try {
+            List<SummaryIndex.Entry> entries = SummaryIndex.read(this.job);
+            return entries.subList(Math.max(0, entries.size() - MAX_BUILDS), entries.size());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read selenium summaries of " + this.job.getFullName(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    private abstract class TrendGraph extends Graph {
+        private final String valueAxisLabel;
+
+        protected TrendGraph(String valueAxisLabel) {
+            super(SummaryIndex.getFile(job).lastModified(), 500, 200);
+            this.valueAxisLabel = valueAxisLabel;
+        }
+
+        protected abstract void add(DataSetBuilder<String, BuildLabel> dsb, ReportSummary s, BuildLabel label);
+
+        @Override
+        protected JFreeChart createGraph() {
+            DataSetBuilder<String, BuildLabel> dsb = new DataSetBuilder<String, BuildLabel>();
+            for (SummaryIndex.Entry e : getEntries()) {
+                add(dsb, e.summary, new BuildLabel(e.buildNumber));
+            }
+            CategoryDataset dataset = dsb.build();
+            JFreeChart chart = ChartFactory.createLineChart(null, null, this.valueAxisLabel, dataset,
+                    PlotOrientation.VERTICAL, true, true, false);
+            chart.setBackgroundPaint(Color.white);
+            CategoryPlot plot = chart.getCategoryPlot();
+            plot.setBackgroundPaint(Color.white);
+            plot.setRangeGridlinePaint(Color.black);
+            CategoryAxis domainAxis = new ShiftedCategoryAxis(null);
+            domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+            domainAxis.setLowerMargin(0.0);
+            domainAxis.setUpperMargin(0.0);
+            domainAxis.setCategoryMargin(0.0);
+            plot.setDomainAxis(domainAxis);
+            return chart;
+        }
+    }
+
+    /**
+     * Category of a build in the trends, ordered by build number.
+     */
+    static final class BuildLabel implements Comparable<BuildLabel> {
+        private final int number;
+
+        BuildLabel(int number) {
+            this.number = number;
+        }
+
+        public int compareTo(BuildLabel o) {
+            return Integer.compare(this.number, o.number);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BuildLabel && ((BuildLabel) o).number == this.number;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.number;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + this.number;
+        }
+    }
+
+    /**
+     * Adds the trend to every job which has published selenium results.
+     */
+    @Extension
+    @SuppressWarnings("rawtypes")
+    public static class Factory extends TransientActionFactory<Job> {
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Nonnull
+        @Override
+        public Collection<? extends Action> createFor(@Nonnull Job target) {
+            if (!SummaryIndex.getFile(target).isFile()) {
+                return Collections.emptyList();
+            }
+            return Collections.singleton(new SeleniumHtmlReportProjectAction(target));
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package org.jvnet.hudson.plugins.seleniumhtmlreport;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import javax.annotation.Nonnull;
 
@@ -17,14 +23,17 @@ import hudson.model.AbstractProject;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.remoting.FastPipedInputStream;
+import hudson.remoting.FastPipedOutputStream;
+import hudson.remoting.Pipe;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Publisher;
 import hudson.tasks.Recorder;
 import hudson.util.FormValidation;
 import jenkins.tasks.SimpleBuildStep;
-import org.apache.tools.ant.DirectoryScanner;
-import org.apache.tools.ant.types.FileSet;
+import org.apache.commons.io.IOUtils;
+import org.jvnet.hudson.plugins.seleniumhtmlreport.ParseReportsCallable.ResultTuple;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
@@ -42,6 +51,38 @@ public class SeleniumHtmlReportPublisher extends Recorder implements Serializabl
 
     private boolean failureIfExceptionOnParsingResultFiles = DescriptorImpl.defaultFailureIfExceptionOnParsingResultFiles;
 
+    private int parallelism = DescriptorImpl.defaultParallelism;
+
+    private boolean archiveReports = DescriptorImpl.defaultArchiveReports;
+
+    private boolean parseCache = DescriptorImpl.defaultParseCache;
+
+    private boolean deduplicateReports = DescriptorImpl.defaultDeduplicateReports;
+
+    private String includes = DescriptorImpl.defaultIncludes;
+
+    private String excludes = DescriptorImpl.defaultExcludes;
+
+    private boolean failFast = DescriptorImpl.defaultFailFast;
+
+    private int keepReports = DescriptorImpl.defaultKeepReports;
+
+    private String unstableFailures = DescriptorImpl.defaultUnstableFailures;
+
+    private String failedFailures = DescriptorImpl.defaultFailedFailures;
+
+    private String unstableErrors = DescriptorImpl.defaultUnstableErrors;
+
+    private String failedErrors = DescriptorImpl.defaultFailedErrors;
+
+    private String unstableDuration = DescriptorImpl.defaultUnstableDuration;
+
+    private String failedDuration = DescriptorImpl.defaultFailedDuration;
+
+    private String unstableDurationRegression = DescriptorImpl.defaultUnstableDurationRegression;
+
+    private String failedDurationRegression = DescriptorImpl.defaultFailedDurationRegression;
+
     @Deprecated
     public SeleniumHtmlReportPublisher(final String testResultsDir, final boolean failureIfExceptionOnParsingResultFiles) {
         super();
@@ -76,6 +117,192 @@ public class SeleniumHtmlReportPublisher extends Recorder implements Serializabl
         return failureIfExceptionOnParsingResultFiles;
     }
 
+    /**
+     * Number of result files parsed concurrently, {@code 0} uses the number of
+     * available processors.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @DataBoundSetter
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(0, parallelism);
+    }
+
+    /**
+     * Whether the reports are stored as one zip archive per build instead of
+     * loose files.
+     */
+    public boolean isArchiveReports() {
+        return archiveReports;
+    }
+
+    @DataBoundSetter
+    public void setArchiveReports(boolean archiveReports) {
+        this.archiveReports = archiveReports;
+    }
+
+    /**
+     * Whether the report files are stored once per content in the
+     * {@link BlobStore} of the job, instead of a copy per build. Takes
+     * precedence over {@link #isArchiveReports()}.
+     */
+    public boolean isDeduplicateReports() {
+        return deduplicateReports;
+    }
+
+    @DataBoundSetter
+    public void setDeduplicateReports(boolean deduplicateReports) {
+        this.deduplicateReports = deduplicateReports;
+    }
+
+    /**
+     * Whether result files already parsed by earlier builds of the job are
+     * taken from the per-job {@link ParseCache}.
+     */
+    public boolean isParseCache() {
+        return parseCache;
+    }
+
+    @DataBoundSetter
+    public void setParseCache(boolean parseCache) {
+        this.parseCache = parseCache;
+    }
+
+    /**
+     * Ant patterns of the files, relative to the results location, which are
+     * stored with the build. The html files among them are parsed.
+     */
+    public String getIncludes() {
+        return includes != null ? includes : DescriptorImpl.defaultIncludes;
+    }
+
+    @DataBoundSetter
+    public void setIncludes(String includes) {
+        this.includes = Util.fixEmptyAndTrim(includes) != null ? includes.trim() : DescriptorImpl.defaultIncludes;
+    }
+
+    /**
+     * Ant patterns of the files to leave out, such as screenshots or
+     * unrelated html files.
+     */
+    public String getExcludes() {
+        return excludes != null ? excludes : DescriptorImpl.defaultExcludes;
+    }
+
+    @DataBoundSetter
+    public void setExcludes(String excludes) {
+        this.excludes = Util.fixNull(excludes).trim();
+    }
+
+    /**
+     * Whether parsing and storing the reports stop as soon as the results
+     * parsed so far exceed an absolute threshold, which then sets the build
+     * result. Percentages are only checked against complete results.
+     */
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    @DataBoundSetter
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    /**
+     * Number of newest builds of the job whose raw reports are kept, the
+     * parsed results of all builds stay. {@code 0} keeps all reports.
+     */
+    public int getKeepReports() {
+        return keepReports;
+    }
+
+    @DataBoundSetter
+    public void setKeepReports(int keepReports) {
+        this.keepReports = Math.max(0, keepReports);
+    }
+
+    /**
+     * Thresholds on the command failures, the command errors, the total
+     * duration in seconds and its increase over the previous build. Each is
+     * absolute or a percentage ({@code 10%}) of the commands or of the
+     * previous duration, blank disables it. The defaults keep the original
+     * rules: any command failure makes the build unstable, any command error
+     * fails it.
+     */
+    public String getUnstableFailures() {
+        return unstableFailures != null ? unstableFailures : DescriptorImpl.defaultUnstableFailures;
+    }
+
+    @DataBoundSetter
+    public void setUnstableFailures(String unstableFailures) {
+        this.unstableFailures = Util.fixNull(unstableFailures).trim();
+    }
+
+    public String getFailedFailures() {
+        return failedFailures != null ? failedFailures : DescriptorImpl.defaultFailedFailures;
+    }
+
+    @DataBoundSetter
+    public void setFailedFailures(String failedFailures) {
+        this.failedFailures = Util.fixNull(failedFailures).trim();
+    }
+
+    public String getUnstableErrors() {
+        return unstableErrors != null ? unstableErrors : DescriptorImpl.defaultUnstableErrors;
+    }
+
+    @DataBoundSetter
+    public void setUnstableErrors(String unstableErrors) {
+        this.unstableErrors = Util.fixNull(unstableErrors).trim();
+    }
+
+    public String getFailedErrors() {
+        return failedErrors != null ? failedErrors : DescriptorImpl.defaultFailedErrors;
+    }
+
+    @DataBoundSetter
+    public void setFailedErrors(String failedErrors) {
+        this.failedErrors = Util.fixNull(failedErrors).trim();
+    }
+
+    public String getUnstableDuration() {
+        return unstableDuration != null ? unstableDuration : DescriptorImpl.defaultUnstableDuration;
+    }
+
+    @DataBoundSetter
+    public void setUnstableDuration(String unstableDuration) {
+        this.unstableDuration = Util.fixNull(unstableDuration).trim();
+    }
+
+    public String getFailedDuration() {
+        return failedDuration != null ? failedDuration : DescriptorImpl.defaultFailedDuration;
+    }
+
+    @DataBoundSetter
+    public void setFailedDuration(String failedDuration) {
+        this.failedDuration = Util.fixNull(failedDuration).trim();
+    }
+
+    public String getUnstableDurationRegression() {
+        return unstableDurationRegression != null ? unstableDurationRegression : DescriptorImpl.defaultUnstableDurationRegression;
+    }
+
+    @DataBoundSetter
+    public void setUnstableDurationRegression(String unstableDurationRegression) {
+        this.unstableDurationRegression = Util.fixNull(unstableDurationRegression).trim();
+    }
+
+    public String getFailedDurationRegression() {
+        return failedDurationRegression != null ? failedDurationRegression : DescriptorImpl.defaultFailedDurationRegression;
+    }
+
+    @DataBoundSetter
+    public void setFailedDurationRegression(String failedDurationRegression) {
+        this.failedDurationRegression = Util.fixNull(failedDurationRegression).trim();
+    }
+
     @Override
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
@@ -84,66 +311,283 @@ public class SeleniumHtmlReportPublisher extends Recorder implements Serializabl
     @Override
     public void perform(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
         listener.getLogger().println("Publishing Selenium report...");
-        FilePath seleniumResults = workspace.child(this.testResultsDir);
-        if (!seleniumResults.exists()) {
-            throw new AbortException("Missing directory " + this.testResultsDir);
-        }
-        if (seleniumResults.list().isEmpty()) {
-            throw new AbortException("Missing selenium result files in directory " + this.testResultsDir);
-        }
-        FilePath target = new FilePath(getSeleniumReportsDir(build));
-        copyReports(seleniumResults, target, listener);
-        ResultTuple resultTpl = createResults(build, listener);
-        SeleniumHtmlReportAction action = new SeleniumHtmlReportAction(resultTpl.results, getSeleniumReportsDir(build));
-        build.addAction(action);
-        if (resultTpl.exceptionWhileParsing && this.failureIfExceptionOnParsingResultFiles) {
-            listener.getLogger().println("Set result to FAILURE");
-            build.setResult(Result.FAILURE);
+        // parallel publishes of one build each write into their own shard
+        int shard = ReportShards.claim(build.getRootDir());
+        boolean published = false;
+        try {
+            publish(build, workspace.child(this.testResultsDir), shard, listener);
+            published = true;
+        } finally {
+            if (!published) {
+                discardShard(build, shard, listener);
+            }
+            ReportShards.release(build.getRootDir(), shard, published);
+        }
+    }
+
+    private void publish(Run<?, ?> build, FilePath seleniumResults, int shard, TaskListener listener) throws InterruptedException, IOException {
+        File shardRoot = ReportShards.getRoot(build.getRootDir(), shard);
+        File reportsDir = getSeleniumReportsDir(build, shard);
+        PublishTimings timings = new PublishTimings();
+        long publishStart = System.currentTimeMillis();
+        // one walk on the agent selects the files, streams them back and parses the html files meanwhile
+        // the agent looks up only the entries of its files instead of getting the whole cache
+        ParseCache.Lookup cache = !this.parseCache ? null
+                : seleniumResults.getChannel().export(ParseCache.Lookup.class, ParseCache.lookup(build.getParent()));
+        Pipe pipe = null;
+        FastPipedOutputStream localTransfer = null;
+        InputStream in;
+        if (seleniumResults.isRemote()) {
+            pipe = Pipe.createRemoteToLocal();
+            in = pipe.getIn();
         } else {
-            calculateResultState(build, resultTpl.results, listener);
+            // the callable is not serialized on the controller, so a pipe would never be connected
+            FastPipedInputStream sink = new FastPipedInputStream();
+            localTransfer = new FastPipedOutputStream(sink);
+            in = sink;
+        }
+        ParseReportsCallable.FailFastThresholds failFastThresholds = !this.failFast ? null
+                : new ParseReportsCallable.FailFastThresholds(getUnstableFailures(), getFailedFailures(),
+                        getUnstableErrors(), getFailedErrors(), getUnstableDuration(), getFailedDuration());
+        Future<ResultTuple> parsing = seleniumResults.actAsync(new ParseReportsCallable(this.parallelism, cache,
+                getIncludes(), getExcludes(), pipe, localTransfer, failFastThresholds));
+        long start = System.currentTimeMillis();
+        try {
+            receiveReports(in, build, reportsDir, listener);
+        } catch (IOException e) {
+            parsing.cancel(true);
+            throw e;
+        } catch (InterruptedException e) {
+            parsing.cancel(true);
+            throw e;
+        }
+        timings.transferMillis = System.currentTimeMillis() - start;
+        ResultTuple resultTpl = createResults(build, parsing, listener);
+        if (resultTpl.missingDirectory || resultTpl.selectedFiles == 0) {
+            throw new AbortException(resultTpl.missingDirectory ? "Missing directory " + this.testResultsDir
+                    : "Missing selenium result files in directory " + this.testResultsDir);
+        }
+        timings.transferFiles = resultTpl.transferFiles;
+        timings.transferBytes = resultTpl.transferBytes;
+        timings.scanMillis = resultTpl.scanMillis;
+        timings.parseMillis = resultTpl.parseMillis;
+        timings.setParseNanos(resultTpl.parseNanos);
+        start = System.currentTimeMillis();
+        ReportSummary summary = ReportSummary.of(resultTpl.results);
+        timings.aggregateMillis = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        List<TestResult> results = resultTpl.results;
+        List<CommandFailure> failures = resultTpl.failures;
+        if (shard > 0) {
+            results = new ArrayList<TestResult>(results.size());
+            for (TestResult r : resultTpl.results) {
+                results.add(r.withResultFileName(ReportShards.getPathPrefix(shard) + r.getResultFileName()));
+            }
+            failures = new ArrayList<CommandFailure>(failures.size());
+            for (CommandFailure f : resultTpl.failures) {
+                failures.add(f.withResultFileName(ReportShards.getPathPrefix(shard) + f.getResultFileName()));
+            }
+        }
+        if (resultTpl.failedFast) {
+            // written first, so incomplete results are never taken for complete ones
+            Files.write(TestResultStore.getIncompleteMarker(shardRoot).toPath(), new byte[0]);
+        }
+        TestResultStore.write(TestResultStore.getResultsFile(shardRoot), results);
+        FailureStore.write(FailureStore.getFailuresFile(shardRoot), failures);
+        if (resultTpl.failedFast) {
+            // incomplete results would skew the trend, the statistics and later comparisons
+            listener.getLogger().println("Fail fast: the selenium trend, suite statistics and suite index are not updated");
+        } else {
+            try {
+                SummaryIndex.append(build.getParent(), build.getNumber(), summary);
+            } catch (IOException e) {
+                listener.getLogger().println("Unable to update the selenium trend: " + e);
+            }
+            // suites are named without the shard prefix, the shards of a build are merged into one run
+            try {
+                SuiteStats.update(build.getParent(), build.getNumber(), resultTpl.results);
+            } catch (IOException e) {
+                listener.getLogger().println("Unable to update the selenium suite statistics: " + e);
+            }
+            try {
+                SuiteIndex.update(build.getParent(), build.getNumber(), resultTpl.results);
+            } catch (IOException e) {
+                listener.getLogger().println("Unable to update the selenium suite index: " + e);
+            }
+        }
+        try {
+            ReportRetention.save(build.getParent(), this.keepReports);
+        } catch (IOException e) {
+            listener.getLogger().println("Unable to store the selenium report retention: " + e);
+        }
+        timings.persistMillis = System.currentTimeMillis() - start;
+        timings.totalMillis = System.currentTimeMillis() - publishStart;
+        // only merging is serialized, the shards store everything else side by side
+        synchronized (JobStorage.lockFor(JobStorage.getDir(build.getParent()))) {
+            SeleniumHtmlReportAction action = build.getAction(SeleniumHtmlReportAction.class);
+            if (action == null) {
+                action = new SeleniumHtmlReportAction(results, getSeleniumReportsDir(build), summary);
+                action.setTimings(timings);
+                build.addAction(action);
+            } else {
+                action.merge(summary);
+            }
+            // the thresholds look at the whole build, as merged so far
+            ReportSummary merged = action.getSummary();
+            listener.getLogger().println("Selenium report published in " + timings);
+            PublishMetrics.record(timings);
+            if (resultTpl.failedFast) {
+                // the other thresholds cannot be checked against incomplete results
+                listener.getLogger().println("Set result to " + resultTpl.failFastResult);
+                build.setResult(resultTpl.failFastResult);
+            } else if (resultTpl.exceptionWhileParsing && this.failureIfExceptionOnParsingResultFiles) {
+                listener.getLogger().println("Set result to FAILURE");
+                build.setResult(Result.FAILURE);
+            } else {
+                calculateResultState(build, merged, listener);
+            }
         }
     }
 
-    private void copyReports(FilePath seleniumResults, FilePath target, TaskListener listener) throws IOException, InterruptedException {
-        listener.getLogger().println("Copying the reports.");
-        seleniumResults.copyRecursiveTo(target);
+    /**
+     * Removes what a publish that did not complete stored in its shard.
+     */
+    private void discardShard(Run<?, ?> build, int shard, TaskListener listener) {
+        File shardRoot = ReportShards.getRoot(build.getRootDir(), shard);
+        try {
+            deleteReports(build, getSeleniumReportsDir(build, shard));
+            Files.deleteIfExists(TestResultStore.getResultsFile(shardRoot).toPath());
+            Files.deleteIfExists(FailureStore.getFailuresFile(shardRoot).toPath());
+            Files.deleteIfExists(TestResultStore.getIncompleteMarker(shardRoot).toPath());
+        } catch (IOException e) {
+            listener.getLogger().println("Unable to remove the incomplete selenium reports: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private ResultTuple createResults(Run<?,?> build, TaskListener listener) throws IOException {
-        List<TestResult> results = new ArrayList<TestResult>();
-        ResultTuple resultTpl = new ResultTuple(false, results);
-        FileSet fs = Util.createFileSet(getSeleniumReportsDir(build), "**/*.html");
-        DirectoryScanner ds = fs.getDirectoryScanner();
-        String[] files = ds.getIncludedFiles();
-        if (files.length == 0) {
-            return resultTpl;
+    /**
+     * Stores the zip streamed from the agent, either as the archive of the
+     * build or unpacked into loose files.
+     */
+    private void receiveReports(InputStream in, Run<?,?> build, File reportsDir, TaskListener listener) throws IOException, InterruptedException {
+        try {
+            if (this.deduplicateReports) {
+                listener.getLogger().println("Storing the reports deduplicated.");
+                int existing = BlobStore.store(build.getParent(), in, ReportManifest.forReportsDir(reportsDir));
+                listener.getLogger().println(existing + " report files were already stored by earlier builds");
+            } else if (this.archiveReports) {
+                listener.getLogger().println("Archiving the reports.");
+                OutputStream os = new FileOutputStream(ReportArchive.forReportsDir(reportsDir));
+                try {
+                    IOUtils.copy(in, os);
+                } finally {
+                    os.close();
+                }
+            } else {
+                listener.getLogger().println("Copying the reports.");
+                new FilePath(reportsDir).unzipFrom(in);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void deleteReports(Run<?,?> build, File reportsDir) throws IOException, InterruptedException {
+        BlobStore.release(build.getParent(), ReportManifest.forReportsDir(reportsDir));
+        File archive = ReportArchive.forReportsDir(reportsDir);
+        if (archive.exists() && !archive.delete()) {
+            throw new IOException("Unable to delete " + archive);
         }
-        for (String selfile : files) {
-            try{
-                results.add(TestResult.parse(build, listener, selfile, getSeleniumReportsDir(build)));
-            } catch (Exception e) {
-                listener.getLogger().println("Unable to parse " + selfile + ": " + e);
-                resultTpl.exceptionWhileParsing = true;
+        new FilePath(reportsDir).deleteRecursive();
+    }
+
+    /**
+     * Waits for the result files parsed on the node that holds the workspace,
+     * only the parsed results are sent back.
+     */
+    private ResultTuple createResults(Run<?,?> build, Future<ResultTuple> parsing, TaskListener listener) throws IOException, InterruptedException {
+        ResultTuple resultTpl;
+        try {
+            resultTpl = parsing.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
+            throw new IOException("Unable to parse the selenium reports", cause);
+        }
+        for (String line : resultTpl.log) {
+            listener.getLogger().println(line);
+        }
+        // a fail fast publish leaves the cache alone, like the other job level stores
+        if (resultTpl.cacheUpdates != null && !resultTpl.failedFast) {
+            listener.getLogger().println("Parse cache: " + resultTpl.cacheHits + " hits, " + resultTpl.cacheMisses + " misses");
+            ParseCache.update(build.getParent(), resultTpl.cacheUpdates);
         }
         return resultTpl;
     }
 
-    private void calculateResultState(Run<?,?> build, List<TestResult> results, TaskListener listener) {
+    /**
+     * Checks the thresholds once against the totals of the build and sets the
+     * worst result they call for.
+     */
+    private void calculateResultState(Run<?,?> build, ReportSummary summary, TaskListener listener) {
         if (Result.ABORTED == build.getResult() || Result.FAILURE == build.getResult()) {
             return;
         }
-        for (TestResult result : results) {
-            if (result.getNumCommandFailures() > 0) {
-                listener.getLogger().println("Set result to UNSTABLE");
-                build.setResult(Result.UNSTABLE);
+        Result result = Result.SUCCESS;
+        int commands = summary.getCommandTotal();
+        result = check(result, Result.UNSTABLE, "command failures", summary.getCommandFailures(), commands, getUnstableFailures(), listener);
+        result = check(result, Result.FAILURE, "command failures", summary.getCommandFailures(), commands, getFailedFailures(), listener);
+        result = check(result, Result.UNSTABLE, "command errors", summary.getCommandErrors(), commands, getUnstableErrors(), listener);
+        result = check(result, Result.FAILURE, "command errors", summary.getCommandErrors(), commands, getFailedErrors(), listener);
+        result = check(result, Result.UNSTABLE, "duration", summary.getTotalTime(), 0, getUnstableDuration(), listener);
+        result = check(result, Result.FAILURE, "duration", summary.getTotalTime(), 0, getFailedDuration(), listener);
+        if (Util.fixEmptyAndTrim(getUnstableDurationRegression()) != null || Util.fixEmptyAndTrim(getFailedDurationRegression()) != null) {
+            ReportSummary previous = getPreviousSummary(build, listener);
+            if (previous != null) {
+                int increase = summary.getTotalTime() - previous.getTotalTime();
+                result = check(result, Result.UNSTABLE, "duration increase", increase, previous.getTotalTime(), getUnstableDurationRegression(), listener);
+                result = check(result, Result.FAILURE, "duration increase", increase, previous.getTotalTime(), getFailedDurationRegression(), listener);
             }
-            if (result.getNumCommandErrors() > 0) {
-                listener.getLogger().println("Set result to FAILURE");
-                build.setResult(Result.FAILURE);
-                break;
+        }
+        if (result.isWorseThan(Result.SUCCESS)) {
+            listener.getLogger().println("Set result to " + result);
+            build.setResult(result);
+        }
+    }
+
+    private static Result check(Result result, Result ifExceeded, String name, long value, long total, String thresholdValue, TaskListener listener) {
+        Threshold threshold;
+        try {
+            threshold = Threshold.parse(thresholdValue);
+        } catch (IllegalArgumentException e) {
+            listener.getLogger().println("Ignoring the invalid " + name + " threshold: " + e.getMessage());
+            return result;
+        }
+        if (threshold == null || !threshold.isExceededBy(value, total)) {
+            return result;
+        }
+        listener.getLogger().println("Threshold for " + ifExceeded + " exceeded: " + name + " " + value + " > " + threshold);
+        return ifExceeded.isWorseThan(result) ? ifExceeded : result;
+    }
+
+    /**
+     * Gets the summary of the latest earlier build from the {@link SummaryIndex},
+     * {@code null} if there is none.
+     */
+    private static ReportSummary getPreviousSummary(Run<?,?> build, TaskListener listener) {
+        ReportSummary previous = null;
+        try {
+            SummaryIndex.Entry e = SummaryIndex.readPrevious(build.getParent(), build.getNumber());
+            if (e != null) {
+                previous = e.summary;
             }
+        } catch (IOException e) {
+            listener.getLogger().println("Unable to read the previous selenium summary: " + e);
         }
+        return previous;
     }
 
     /**
@@ -154,6 +598,11 @@ public class SeleniumHtmlReportPublisher extends Recorder implements Serializabl
         return new File(build.getRootDir(), SELENIUM_REPORTS_TARGET);
     }
 
+    private File getSeleniumReportsDir(Run<?,?> build, int shard) {
+        return shard == 0 ? getSeleniumReportsDir(build)
+                : new File(ReportShards.getRoot(build.getRootDir(), shard), SELENIUM_REPORTS_TARGET);
+    }
+
     @Extension
     public static class DescriptorImpl extends BuildStepDescriptor<Publisher> {
         public DescriptorImpl() {
@@ -164,6 +613,38 @@ public class SeleniumHtmlReportPublisher extends Recorder implements Serializabl
 
         public static final boolean defaultFailureIfExceptionOnParsingResultFiles = true;
 
+        public static final int defaultParallelism = 0;
+
+        public static final boolean defaultArchiveReports = false;
+
+        public static final boolean defaultParseCache = false;
+
+        public static final boolean defaultDeduplicateReports = false;
+
+        public static final String defaultIncludes = "**/*";
+
+        public static final String defaultExcludes = "";
+
+        public static final boolean defaultFailFast = false;
+
+        public static final int defaultKeepReports = 0;
+
+        public static final String defaultUnstableFailures = "0";
+
+        public static final String defaultFailedFailures = "";
+
+        public static final String defaultUnstableErrors = "";
+
+        public static final String defaultFailedErrors = "0";
+
+        public static final String defaultUnstableDuration = "";
+
+        public static final String defaultFailedDuration = "";
+
+        public static final String defaultUnstableDurationRegression = "";
+
+        public static final String defaultFailedDurationRegression = "";
+
         public String getDisplayName() {
             return Messages.SeleniumHtmlReportPublisher_DisplayName();
         }
@@ -178,6 +659,59 @@ public class SeleniumHtmlReportPublisher extends Recorder implements Serializabl
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckUnstableFailures(@QueryParameter String value) {
+            return checkThreshold(value, true);
+        }
+
+        public FormValidation doCheckFailedFailures(@QueryParameter String value) {
+            return checkThreshold(value, true);
+        }
+
+        public FormValidation doCheckUnstableErrors(@QueryParameter String value) {
+            return checkThreshold(value, true);
+        }
+
+        public FormValidation doCheckFailedErrors(@QueryParameter String value) {
+            return checkThreshold(value, true);
+        }
+
+        public FormValidation doCheckUnstableDuration(@QueryParameter String value) {
+            return checkThreshold(value, false);
+        }
+
+        public FormValidation doCheckFailedDuration(@QueryParameter String value) {
+            return checkThreshold(value, false);
+        }
+
+        public FormValidation doCheckUnstableDurationRegression(@QueryParameter String value) {
+            return checkThreshold(value, true);
+        }
+
+        public FormValidation doCheckFailedDurationRegression(@QueryParameter String value) {
+            return checkThreshold(value, true);
+        }
+
+        private static FormValidation checkThreshold(String value, boolean percentageAllowed) {
+            Threshold threshold;
+            try {
+                threshold = Threshold.parse(value);
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error("Please give a non-negative number" + (percentageAllowed ? " or a percentage" : ""));
+            }
+            if (threshold != null && threshold.isPercentage() && !percentageAllowed) {
+                return FormValidation.error("Please give a number of seconds");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckParallelism(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckKeepReports(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
         private static boolean isAbsolute(String rel) {
             return rel.startsWith("/") || DRIVE_PATTERN.matcher(rel).matches();
         }
@@ -190,15 +724,4 @@ public class SeleniumHtmlReportPublisher extends Recorder implements Serializabl
             return true;
         }
     }
-
-    private static class ResultTuple {
-        boolean exceptionWhileParsing = false;
-        List<TestResult> results;
-
-        public ResultTuple(boolean exceptionWhileParsing, List<TestResult> results) {
-            super();
-            this.exceptionWhileParsing = exceptionWhileParsing;
-            this.results = results;
-        }
-    }
 }
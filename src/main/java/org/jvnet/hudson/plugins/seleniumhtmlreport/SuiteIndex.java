@@ -0,0 +1,577 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Inverted index from the name of a result file ("suite") to the builds of
+ * the job which ran it and whether it passed there, so the history of one
+ * suite is found without loading any build.
+ * <p>
+ * The builds of a suite are kept as one compact posting list: ascending
+ * build numbers, each stored as varint of the distance to the previous one,
+ * with the lowest bit set when the suite failed. Every publish adds its
+ * suites to the index and deleting a build removes it. Publishes stopped
+ * early in fail fast mode are left out. A missing index is rebuilt in the
+ * background from the result stores of all builds. Instances are immutable;
+ * loaded indexes are kept softly reachable until the file changes.
+ */
+public final class SuiteIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(SuiteIndex.class.getName());
+
+    static final String FILE_NAME = "suite-index.dat";
+
+    private static final int MAGIC = 0x53485349;
+    private static final int VERSION = 1;
+
+    private static final ConcurrentMap<String, CachedIndex> CACHE = new ConcurrentHashMap<String, CachedIndex>();
+
+    /**
+     * Publishes made while the index of a job is rebuilt, by index file. Only
+     * used while holding the lock of the job.
+     */
+    private static final Map<String, List<Update>> REBUILDS = new HashMap<String, List<Update>>();
+
+    private static final ExecutorService REBUILDER = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "SuiteIndex.rebuild"));
+
+    /** Posting lists by suite, sorted by name. */
+    private final TreeMap<String, Postings> suites;
+
+    SuiteIndex() {
+        this(new TreeMap<String, Postings>());
+    }
+
+    private SuiteIndex(TreeMap<String, Postings> suites) {
+        this.suites = suites;
+    }
+
+    static File getFile(Job<?, ?> job) {
+        return JobStorage.getFile(job, FILE_NAME);
+    }
+
+    /**
+     * Adds the results of one publish to the index of the job. If the index
+     * does not exist yet it is rebuilt in the background instead.
+     */
+    static void update(Job<?, ?> job, int buildNumber, List<TestResult> results) throws IOException {
+        apply(job, new Update(buildNumber, results));
+    }
+
+    /**
+     * Removes a deleted build from the index of the job.
+     */
+    static void remove(Job<?, ?> job, int buildNumber) throws IOException {
+        File file = getFile(job);
+        synchronized (JobStorage.lockFor(file.getParentFile())) {
+            if (!file.isFile() && !REBUILDS.containsKey(file.getAbsolutePath())) {
+                return; // nothing to remove from, a rebuild only finds existing builds
+            }
+            apply(job, Update.removal(buildNumber));
+        }
+    }
+
+    private static void apply(Job<?, ?> job, Update update) throws IOException {
+        File file = getFile(job);
+        synchronized (JobStorage.lockFor(file.getParentFile())) {
+            List<Update> pending = REBUILDS.get(file.getAbsolutePath());
+            if (pending != null) {
+                pending.add(update);
+                return;
+            }
+            SuiteIndex index = file.isFile() ? load(file) : null;
+            if (index == null) {
+                // earlier builds have to be indexed first, the rebuild picks up this publish as well
+                rebuildLater(job, update);
+                return;
+            }
+            index.with(update).write(file);
+        }
+    }
+
+    /**
+     * Reads the index of the job, {@code null} while it is rebuilt.
+     */
+    static SuiteIndex read(Job<?, ?> job) throws IOException {
+        File file = getFile(job);
+        synchronized (JobStorage.lockFor(file.getParentFile())) {
+            if (REBUILDS.containsKey(file.getAbsolutePath())) {
+                return null;
+            }
+            if (!file.isFile()) {
+                rebuildLater(job, null);
+                return null;
+            }
+        }
+        SuiteIndex index = load(file);
+        if (index == null) {
+            synchronized (JobStorage.lockFor(file.getParentFile())) {
+                if (!REBUILDS.containsKey(file.getAbsolutePath())) {
+                    rebuildLater(job, null);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Gets the builds which ran the suite, the newest first.
+     */
+    public List<Occurrence> getOccurrences(String suite) {
+        Postings postings = suite != null ? this.suites.get(suite) : null;
+        if (postings == null) {
+            return Collections.emptyList();
+        }
+        return postings.decode();
+    }
+
+    /**
+     * Gets the names of the suites containing the text, ignoring case.
+     */
+    public List<String> findSuites(String text, int max) {
+        List<String> names = new ArrayList<String>();
+        String needle = text != null ? text.toLowerCase(Locale.ENGLISH) : "";
+        for (String name : this.suites.keySet()) {
+            if (names.size() == max) {
+                break;
+            }
+            if (name.toLowerCase(Locale.ENGLISH).contains(needle)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    public int getSuiteCount() {
+        return this.suites.size();
+    }
+
+    /**
+     * Gets a copy of the index with the results of one publish added.
+     */
+    SuiteIndex with(int buildNumber, List<TestResult> results) {
+        return with(new Update(buildNumber, results));
+    }
+
+    private SuiteIndex with(Update update) {
+        if (update.removed) {
+            return without(update.buildNumber);
+        }
+        TreeMap<String, Postings> copy = new TreeMap<String, Postings>(this.suites);
+        for (Map.Entry<String, Boolean> e : update.failed.entrySet()) {
+            Postings postings = copy.get(e.getKey());
+            copy.put(e.getKey(), postings == null ? Postings.of(update.buildNumber, e.getValue())
+                    : postings.with(update.buildNumber, e.getValue()));
+        }
+        return new SuiteIndex(copy);
+    }
+
+    /**
+     * Gets a copy of the index without the given build.
+     */
+    SuiteIndex without(int buildNumber) {
+        TreeMap<String, Postings> copy = new TreeMap<String, Postings>(this.suites);
+        for (Map.Entry<String, Postings> e : this.suites.entrySet()) {
+            Postings postings = e.getValue();
+            // the first build is the first distance, only later builds need decoding
+            if (postings.lastBuild < buildNumber || postings.firstBuild() > buildNumber) {
+                continue;
+            }
+            Postings rest = postings.without(buildNumber);
+            if (rest == null) {
+                copy.remove(e.getKey());
+            } else if (rest != postings) {
+                copy.put(e.getKey(), rest);
+            }
+        }
+        return new SuiteIndex(copy);
+    }
+
+    /**
+     * Loads the index, {@code null} if it was written by another version.
+     */
+    private static SuiteIndex load(File file) throws IOException {
+        CachedIndex cached = CACHE.get(file.getAbsolutePath());
+        if (cached != null && cached.isCurrent(file)) {
+            SuiteIndex index = cached.index.get();
+            if (index != null) {
+                return index;
+            }
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
+        TreeMap<String, Postings> suites = new TreeMap<String, Postings>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null; // rebuilt from the result stores
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                String name = in.readUTF();
+                int count = in.readInt();
+                int lastBuild = in.readInt();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                suites.put(name, new Postings(data, count, lastBuild));
+            }
+        } finally {
+            in.close();
+        }
+        SuiteIndex index = new SuiteIndex(suites);
+        CACHE.put(file.getAbsolutePath(), new CachedIndex(index, lastModified, length));
+        return index;
+    }
+
+    private void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.suites.size());
+            for (Map.Entry<String, Postings> e : this.suites.entrySet()) {
+                Postings p = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeInt(p.count);
+                out.writeInt(p.lastBuild);
+                out.writeInt(p.data.length);
+                out.write(p.data);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        CACHE.put(file.getAbsolutePath(), new CachedIndex(this, file.lastModified(), file.length()));
+    }
+
+    /**
+     * Schedules the rebuild of the index of the job unless one is running.
+     * Must be called holding the lock of the job.
+     */
+    private static void rebuildLater(final Job<?, ?> job, Update update) {
+        final File file = getFile(job);
+        final List<Update> pending = new ArrayList<Update>();
+        if (update != null) {
+            pending.add(update);
+        }
+        REBUILDS.put(file.getAbsolutePath(), pending);
+        REBUILDER.submit(new Runnable() {
+            public void run() {
+                try {
+                    SuiteIndex index = scan(job);
+                    synchronized (JobStorage.lockFor(file.getParentFile())) {
+                        for (Update u : pending) {
+                            index = index.with(u);
+                        }
+                        file.getParentFile().mkdirs();
+                        index.write(file);
+                    }
+                    LOGGER.log(Level.FINE, "Rebuilt the selenium suite index of {0}", job.getFullName());
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Unable to rebuild the selenium suite index of " + job.getFullName(), e);
+                } finally {
+                    synchronized (JobStorage.lockFor(file.getParentFile())) {
+                        if (REBUILDS.get(file.getAbsolutePath()) == pending) {
+                            REBUILDS.remove(file.getAbsolutePath());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Indexes the result stores of all builds, walking the build directories
+     * only. Builds recorded before the results were moved out of the build
+     * record and publishes stopped early in fail fast mode are left out.
+     */
+    static SuiteIndex scan(Job<?, ?> job) throws IOException {
+        List<Integer> numbers = new ArrayList<Integer>();
+        String[] names = job.getBuildDir().list();
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    numbers.add(Integer.parseInt(name));
+                } catch (NumberFormatException e) {
+                    // a symlink like lastSuccessfulBuild or some other file
+                }
+            }
+        }
+        Collections.sort(numbers);
+        Map<String, Builder> builders = new HashMap<String, Builder>();
+        for (int number : numbers) {
+            File buildDir = new File(job.getBuildDir(), Integer.toString(number));
+            List<File> roots = ReportShards.getRoots(buildDir);
+            Map<String, Boolean> failed = new LinkedHashMap<String, Boolean>();
+            for (int shard = 0; shard < roots.size(); shard++) {
+                File results = TestResultStore.getResultsFile(roots.get(shard));
+                if (!results.isFile() || TestResultStore.getIncompleteMarker(roots.get(shard)).exists()) {
+                    continue;
+                }
+                for (TestResult r : TestResultStore.read(results)) {
+                    put(failed, ReportShards.stripPathPrefix(r.getResultFileName()), r);
+                }
+            }
+            for (Map.Entry<String, Boolean> e : failed.entrySet()) {
+                Builder builder = builders.get(e.getKey());
+                if (builder == null) {
+                    builder = new Builder();
+                    builders.put(e.getKey(), builder);
+                }
+                builder.add(number, e.getValue());
+            }
+        }
+        TreeMap<String, Postings> suites = new TreeMap<String, Postings>();
+        for (Map.Entry<String, Builder> e : builders.entrySet()) {
+            suites.put(e.getKey(), e.getValue().build());
+        }
+        return new SuiteIndex(suites);
+    }
+
+    private static void put(Map<String, Boolean> failed, String name, TestResult r) {
+        boolean f = !"passed".equalsIgnoreCase(r.getResult());
+        Boolean previous = failed.get(name);
+        failed.put(name, previous != null && previous || f);
+    }
+
+    /**
+     * The outcome of a suite in one build.
+     */
+    public static final class Occurrence {
+        private final int buildNumber;
+        private final boolean failed;
+
+        Occurrence(int buildNumber, boolean failed) {
+            this.buildNumber = buildNumber;
+            this.failed = failed;
+        }
+
+        public int getBuildNumber() {
+            return this.buildNumber;
+        }
+
+        public boolean isFailed() {
+            return this.failed;
+        }
+    }
+
+    /**
+     * The builds of one suite, see the class comment for the encoding.
+     */
+    private static final class Postings {
+        final byte[] data;
+        final int count;
+        final int lastBuild;
+
+        Postings(byte[] data, int count, int lastBuild) {
+            this.data = data;
+            this.count = count;
+            this.lastBuild = lastBuild;
+        }
+
+        static Postings of(int buildNumber, boolean failed) {
+            return new Builder().add(buildNumber, failed).build();
+        }
+
+        Postings with(int buildNumber, boolean failed) {
+            if (buildNumber > this.lastBuild) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(this.data.length + 5);
+                out.write(this.data, 0, this.data.length);
+                writeVarint(out, (buildNumber - this.lastBuild) << 1 | (failed ? 1 : 0));
+                return new Postings(out.toByteArray(), this.count + 1, buildNumber);
+            }
+            // builds of one job may finish out of order, or publish in several shards
+            List<Occurrence> occurrences = decode();
+            Collections.reverse(occurrences);
+            Builder builder = new Builder();
+            boolean added = false;
+            for (Occurrence o : occurrences) {
+                if (!added && o.buildNumber >= buildNumber) {
+                    if (o.buildNumber == buildNumber) {
+                        if (o.failed || !failed) {
+                            return this;
+                        }
+                        o = new Occurrence(buildNumber, true);
+                    } else {
+                        builder.add(buildNumber, failed);
+                    }
+                    added = true;
+                }
+                builder.add(o.buildNumber, o.failed);
+            }
+            return builder.build();
+        }
+
+        int firstBuild() {
+            int value = 0;
+            int shift = 0;
+            int b;
+            int pos = 0;
+            do {
+                b = this.data[pos++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value >>> 1;
+        }
+
+        /**
+         * Gets the postings without the given build, {@code null} if no other
+         * build is left.
+         */
+        Postings without(int buildNumber) {
+            List<Occurrence> occurrences = decode();
+            Collections.reverse(occurrences);
+            Builder builder = new Builder();
+            for (Occurrence o : occurrences) {
+                if (o.buildNumber != buildNumber) {
+                    builder.add(o.buildNumber, o.failed);
+                }
+            }
+            if (builder.count == this.count) {
+                return this;
+            }
+            return builder.count == 0 ? null : builder.build();
+        }
+
+        /**
+         * Gets the occurrences, the newest first.
+         */
+        List<Occurrence> decode() {
+            Occurrence[] occurrences = new Occurrence[this.count];
+            int pos = 0;
+            int build = 0;
+            for (int i = this.count - 1; i >= 0; i--) {
+                int value = 0;
+                int shift = 0;
+                int b;
+                do {
+                    b = this.data[pos++];
+                    value |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                build += value >>> 1;
+                occurrences[i] = new Occurrence(build, (value & 1) != 0);
+            }
+            return new ArrayList<Occurrence>(Arrays.asList(occurrences));
+        }
+    }
+
+    /**
+     * Appends builds in ascending order.
+     */
+    private static final class Builder {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int count;
+        private int lastBuild;
+
+        Builder add(int buildNumber, boolean failed) {
+            writeVarint(this.out, (buildNumber - this.lastBuild) << 1 | (failed ? 1 : 0));
+            this.count++;
+            this.lastBuild = buildNumber;
+            return this;
+        }
+
+        Postings build() {
+            return new Postings(this.out.toByteArray(), this.count, this.lastBuild);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * The outcomes of the suites of one publish, a suite failing in any
+     * result file of the publish counts as failed.
+     */
+    private static final class Update {
+        final int buildNumber;
+        final Map<String, Boolean> failed = new LinkedHashMap<String, Boolean>();
+        /** Whether the build is removed instead. */
+        boolean removed;
+
+        Update(int buildNumber, List<TestResult> results) {
+            this.buildNumber = buildNumber;
+            for (TestResult r : results) {
+                put(this.failed, r.getResultFileName(), r);
+            }
+        }
+
+        static Update removal(int buildNumber) {
+            Update update = new Update(buildNumber, Collections.<TestResult>emptyList());
+            update.removed = true;
+            return update;
+        }
+    }
+
+    /**
+     * Removes a build from the index when it is deleted.
+     */
+    @Extension
+    @SuppressWarnings("rawtypes")
+    public static class RemoveOnDelete extends RunListener<Run> {
+        @Override
+        public void onDeleted(@Nonnull Run run) {
+            try {
+                remove(run.getParent(), run.getNumber());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to remove " + run + " from the selenium suite index", e);
+            }
+        }
+    }
+
+    private static final class CachedIndex {
+        final SoftReference<SuiteIndex> index;
+        final long lastModified;
+        final long length;
+
+        CachedIndex(SuiteIndex index, long lastModified, long length) {
+            this.index = new SoftReference<SuiteIndex>(index);
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        boolean isCurrent(File file) {
+            return file.lastModified() == this.lastModified && file.length() == this.length;
+        }
+    }
+}
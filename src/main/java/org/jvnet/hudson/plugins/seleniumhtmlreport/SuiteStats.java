@@ -0,0 +1,342 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hudson.model.Job;
+import jenkins.util.SystemProperties;
+
+/**
+ * Rolling statistics per result file ("suite") over all builds of a job:
+ * pass rate, how often the result flipped between passed and failed, and the
+ * exponentially weighted moving average and percentiles of the duration.
+ * <p>
+ * Every publish updates the statistics of its suites in place, so showing
+ * them costs one read of a file with one record per suite, whatever the
+ * number of builds. The recent runs of a suite are kept ordered by build
+ * number, so builds finishing out of order are compared with the builds
+ * before and after them. All publishes of a build, like its shards, count as
+ * one run of a suite, which failed if it failed in any of them, as in
+ * {@link SuiteIndex}.
+ */
+public final class SuiteStats {
+
+    static final String FILE_NAME = "suite-stats.dat";
+
+    static final int MAX_SUITES = SystemProperties.getInteger(SuiteStats.class.getName() + ".maxSuites", 10000);
+
+    /** Number of recent runs kept per suite for the flips and durations. */
+    static final int WINDOW = 50;
+
+    /** Weight of the newest duration in the moving average. */
+    private static final double ALPHA = 0.2;
+
+    private static final int MAGIC = 0x53485353;
+    private static final int VERSION = 2;
+
+    private SuiteStats() {
+    }
+
+    static File getFile(Job<?, ?> job) {
+        return JobStorage.getFile(job, FILE_NAME);
+    }
+
+    /**
+     * Adds the results of one publish to the statistics of the job. Result
+     * files are named without the path prefix of their shard.
+     */
+    static void update(Job<?, ?> job, int buildNumber, List<TestResult> results) throws IOException {
+        File file = getFile(job);
+        synchronized (JobStorage.lockFor(file.getParentFile())) {
+            Map<String, Suite> suites = read(file);
+            for (TestResult r : results) {
+                Suite suite = suites.get(r.getResultFileName());
+                if (suite == null) {
+                    suite = new Suite(r.getResultFileName());
+                    suites.put(suite.name, suite);
+                }
+                suite.add(buildNumber, "passed".equalsIgnoreCase(r.getResult()), r.getTotalTime());
+            }
+            evict(suites);
+            file.getParentFile().mkdirs();
+            write(file, suites);
+        }
+    }
+
+    /**
+     * Reads the statistics of all suites of the job, the most flaky first.
+     */
+    static List<Suite> read(Job<?, ?> job) throws IOException {
+        List<Suite> suites = new ArrayList<Suite>(read(getFile(job)).values());
+        Collections.sort(suites, new Comparator<Suite>() {
+            public int compare(Suite a, Suite b) {
+                int c = Integer.compare(b.flips, a.flips);
+                return c != 0 ? c : a.name.compareTo(b.name);
+            }
+        });
+        return suites;
+    }
+
+    /**
+     * Drops the suites not seen for the longest time once there are too many.
+     */
+    private static void evict(Map<String, Suite> suites) {
+        if (suites.size() <= MAX_SUITES) {
+            return;
+        }
+        List<Suite> byLastBuild = new ArrayList<Suite>(suites.values());
+        Collections.sort(byLastBuild, new Comparator<Suite>() {
+            public int compare(Suite a, Suite b) {
+                return Integer.compare(a.getLastBuild(), b.getLastBuild());
+            }
+        });
+        for (int i = 0; i < byLastBuild.size() - MAX_SUITES; i++) {
+            suites.remove(byLastBuild.get(i).name);
+        }
+    }
+
+    private static Map<String, Suite> read(File file) throws IOException {
+        Map<String, Suite> suites = new LinkedHashMap<String, Suite>();
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return suites;
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return suites; // written by another version, start over
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                Suite s = new Suite(in.readUTF());
+                s.runs = in.readInt();
+                s.passes = in.readInt();
+                s.flips = in.readInt();
+                int count = in.readInt();
+                s.builds = new int[count];
+                s.passed = new boolean[count];
+                s.durations = new int[count];
+                for (int i = 0; i < count; i++) {
+                    s.builds[i] = in.readInt();
+                    s.passed[i] = in.readBoolean();
+                    s.durations[i] = in.readInt();
+                }
+                suites.put(s.name, s);
+            }
+        } finally {
+            in.close();
+        }
+        return suites;
+    }
+
+    private static void write(File file, Map<String, Suite> suites) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(suites.size());
+            for (Suite s : suites.values()) {
+                out.writeUTF(s.name);
+                out.writeInt(s.runs);
+                out.writeInt(s.passes);
+                out.writeInt(s.flips);
+                out.writeInt(s.builds.length);
+                for (int i = 0; i < s.builds.length; i++) {
+                    out.writeInt(s.builds[i]);
+                    out.writeBoolean(s.passed[i]);
+                    out.writeInt(s.durations[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Statistics of one result file.
+     */
+    public static final class Suite {
+        private final String name;
+        private int runs;
+        private int passes;
+        private int flips;
+        /** The most recent runs by ascending build number. */
+        private int[] builds = new int[0];
+        private boolean[] passed = new boolean[0];
+        private int[] durations = new int[0];
+
+        Suite(String name) {
+            this.name = name;
+        }
+
+        void add(int buildNumber, boolean passed, int duration) {
+            int n = this.builds.length;
+            int i = n;
+            while (i > 0 && this.builds[i - 1] > buildNumber) {
+                i--;
+            }
+            if (i > 0 && this.builds[i - 1] == buildNumber) {
+                // another publish of the build, one run which failed if any publish failed
+                i--;
+                this.durations[i] += duration;
+                if (this.passed[i] && !passed) {
+                    this.flips -= flipsAround(i);
+                    this.passed[i] = false;
+                    this.flips += flipsAround(i);
+                    this.passes--;
+                }
+                return;
+            }
+            this.runs++;
+            if (passed) {
+                this.passes++;
+            }
+            if (i == 0 && n == WINDOW) {
+                // older than all recent runs, its neighbours are not known any more
+                return;
+            }
+            if (i > 0 && i < n && this.passed[i - 1] != this.passed[i]) {
+                this.flips--;
+            }
+            this.builds = insert(this.builds, i, buildNumber);
+            this.durations = insert(this.durations, i, duration);
+            boolean[] p = new boolean[n + 1];
+            System.arraycopy(this.passed, 0, p, 0, i);
+            p[i] = passed;
+            System.arraycopy(this.passed, i, p, i + 1, n - i);
+            this.passed = p;
+            this.flips += flipsAround(i);
+            if (n + 1 > WINDOW) {
+                this.builds = Arrays.copyOfRange(this.builds, 1, n + 1);
+                this.passed = Arrays.copyOfRange(this.passed, 1, n + 1);
+                this.durations = Arrays.copyOfRange(this.durations, 1, n + 1);
+            }
+        }
+
+        /**
+         * Counts the flips from the run before to the given recent run and
+         * from it to the run after.
+         */
+        private int flipsAround(int i) {
+            int f = 0;
+            if (i > 0 && this.passed[i - 1] != this.passed[i]) {
+                f++;
+            }
+            if (i + 1 < this.passed.length && this.passed[i] != this.passed[i + 1]) {
+                f++;
+            }
+            return f;
+        }
+
+        private static int[] insert(int[] values, int i, int value) {
+            int[] copy = new int[values.length + 1];
+            System.arraycopy(values, 0, copy, 0, i);
+            copy[i] = value;
+            System.arraycopy(values, i, copy, i + 1, values.length - i);
+            return copy;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public int getRuns() {
+            return this.runs;
+        }
+
+        public int getPasses() {
+            return this.passes;
+        }
+
+        /**
+         * Percentage of the runs which passed.
+         */
+        public int getPassRate() {
+            return this.runs == 0 ? 0 : (int) Math.round(100.0 * this.passes / this.runs);
+        }
+
+        /**
+         * Number of times the result changed between passed and failed from
+         * one run to the next.
+         */
+        public int getFlips() {
+            return this.flips;
+        }
+
+        public boolean isLastPassed() {
+            return this.passed.length > 0 && this.passed[this.passed.length - 1];
+        }
+
+        public int getLastBuild() {
+            return this.builds.length > 0 ? this.builds[this.builds.length - 1] : 0;
+        }
+
+        /**
+         * Moving average of the duration in seconds, weighted towards the
+         * most recent runs.
+         */
+        public double getEwmaDuration() {
+            double ewma = 0;
+            for (int i = 0; i < this.durations.length; i++) {
+                ewma = i == 0 ? this.durations[i] : ALPHA * this.durations[i] + (1 - ALPHA) * ewma;
+            }
+            return ewma;
+        }
+
+        /**
+         * Gets the moving average rounded to whole seconds.
+         */
+        public long getAverageDuration() {
+            return Math.round(getEwmaDuration());
+        }
+
+        public int getP50Duration() {
+            return percentile(50);
+        }
+
+        public int getP90Duration() {
+            return percentile(90);
+        }
+
+        /**
+         * Ratio of the moving average to the median of the recent durations,
+         * above 1 if the suite got slower lately.
+         */
+        public double getSlowdown() {
+            int median = getP50Duration();
+            return median == 0 ? 1 : getEwmaDuration() / median;
+        }
+
+        public long getSlowdownPercent() {
+            return Math.round(getSlowdown() * 100);
+        }
+
+        private int percentile(int p) {
+            if (this.durations.length == 0) {
+                return 0;
+            }
+            int[] sorted = this.durations.clone();
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, index)];
+        }
+    }
+}
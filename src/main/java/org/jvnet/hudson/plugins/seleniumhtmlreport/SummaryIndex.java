@@ -0,0 +1,209 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import hudson.model.Job;
+
+/**
+ * Append-only index of the {@link ReportSummary} of every publish of a job,
+ * one line per publish. Trends are read from here without loading any build.
+ * The parsed index is kept softly reachable until the file changes, and
+ * {@link ReportRetention.PurgeWork} compacts it to one line per existing
+ * build.
+ */
+final class SummaryIndex {
+
+    static final String FILE_NAME = "summaries.csv";
+
+    private static final ConcurrentMap<String, CachedSummaries> CACHE = new ConcurrentHashMap<String, CachedSummaries>();
+
+    private SummaryIndex() {
+    }
+
+    static File getFile(Job<?, ?> job) {
+        return JobStorage.getFile(job, FILE_NAME);
+    }
+
+    static void append(Job<?, ?> job, int buildNumber, ReportSummary s) throws IOException {
+        File file = getFile(job);
+        String line = toLine(buildNumber, s);
+        synchronized (JobStorage.lockFor(file.getParentFile())) {
+            file.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(file, true);
+            try {
+                out.write(line.getBytes(StandardCharsets.US_ASCII));
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private static String toLine(int buildNumber, ReportSummary s) {
+        return buildNumber + "," + s.getTestPasses() + "," + s.getTestFailures() + ","
+                + s.getCommandPasses() + "," + s.getCommandFailures() + "," + s.getCommandErrors() + ","
+                + s.getTotalTime() + "\n";
+    }
+
+    /**
+     * Reads the summaries of all builds of the job which still exist, ordered
+     * by build number. Several publishes of one build are added up.
+     */
+    static List<Entry> read(Job<?, ?> job) throws IOException {
+        Map<Integer, ReportSummary> summaries = load(getFile(job));
+        List<Entry> entries = new ArrayList<Entry>(summaries.size());
+        File buildDir = job.getBuildDir();
+        for (Map.Entry<Integer, ReportSummary> e : summaries.entrySet()) {
+            if (new File(buildDir, e.getKey().toString()).isDirectory()) {
+                entries.add(new Entry(e.getKey(), e.getValue()));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Gets the summary of the newest build before the given one which still
+     * exists, {@code null} if there is none.
+     */
+    static Entry readPrevious(Job<?, ?> job, int buildNumber) throws IOException {
+        File buildDir = job.getBuildDir();
+        for (Map.Entry<Integer, ReportSummary> e : load(getFile(job)).headMap(buildNumber, false).descendingMap().entrySet()) {
+            if (new File(buildDir, e.getKey().toString()).isDirectory()) {
+                return new Entry(e.getKey(), e.getValue());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Rewrites the index with one line per build which still exists, if it
+     * holds any other line.
+     *
+     * @return whether the index was rewritten
+     */
+    static boolean compact(Job<?, ?> job) throws IOException {
+        File file = getFile(job);
+        synchronized (JobStorage.lockFor(file.getParentFile())) {
+            List<Entry> entries = read(job);
+            int lines = 0;
+            BufferedReader reader;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.US_ASCII));
+            } catch (FileNotFoundException e) {
+                return false;
+            }
+            try {
+                while (reader.readLine() != null) {
+                    lines++;
+                }
+            } finally {
+                reader.close();
+            }
+            if (lines == entries.size()) {
+                return false;
+            }
+            File tmp = new File(file.getPath() + ".tmp");
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                for (Entry e : entries) {
+                    out.write(toLine(e.buildNumber, e.summary).getBytes(StandardCharsets.US_ASCII));
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+    }
+
+    /**
+     * Parses the index, adding up several publishes of one build. The map
+     * returned is shared and must not be changed.
+     */
+    private static NavigableMap<Integer, ReportSummary> load(File file) throws IOException {
+        CachedSummaries cached = CACHE.get(file.getAbsolutePath());
+        if (cached != null && cached.isCurrent(file)) {
+            NavigableMap<Integer, ReportSummary> summaries = cached.summaries.get();
+            if (summaries != null) {
+                return summaries;
+            }
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
+        TreeMap<Integer, ReportSummary> summaries = new TreeMap<Integer, ReportSummary>();
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.US_ASCII));
+        } catch (FileNotFoundException e) {
+            return summaries;
+        }
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] v = line.split(",");
+                if (v.length != 7) {
+                    continue; // truncated by a crash while appending
+                }
+                try {
+                    int number = Integer.parseInt(v[0]);
+                    ReportSummary s = new ReportSummary(Integer.parseInt(v[1]), Integer.parseInt(v[2]),
+                            Integer.parseInt(v[3]), Integer.parseInt(v[4]), Integer.parseInt(v[5]),
+                            Integer.parseInt(v[6]));
+                    ReportSummary previous = summaries.get(number);
+                    summaries.put(number, previous == null ? s : previous.plus(s));
+                } catch (NumberFormatException e) {
+                    // skip broken line
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        NavigableMap<Integer, ReportSummary> unmodifiable = Collections.unmodifiableNavigableMap(summaries);
+        CACHE.put(file.getAbsolutePath(), new CachedSummaries(unmodifiable, lastModified, length));
+        return unmodifiable;
+    }
+
+    static final class Entry {
+        final int buildNumber;
+        final ReportSummary summary;
+
+        Entry(int buildNumber, ReportSummary summary) {
+            this.buildNumber = buildNumber;
+            this.summary = summary;
+        }
+    }
+
+    private static final class CachedSummaries {
+        final SoftReference<NavigableMap<Integer, ReportSummary>> summaries;
+        final long lastModified;
+        final long length;
+
+        CachedSummaries(NavigableMap<Integer, ReportSummary> summaries, long lastModified, long length) {
+            this.summaries = new SoftReference<NavigableMap<Integer, ReportSummary>>(summaries);
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        boolean isCurrent(File file) {
+            return file.lastModified() == this.lastModified && file.length() == this.length;
+        }
+    }
+}
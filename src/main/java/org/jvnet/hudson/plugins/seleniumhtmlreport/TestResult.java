@@ -3,20 +3,24 @@ package org.jvnet.hudson.plugins.seleniumhtmlreport;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import hudson.model.Run;
 import hudson.model.TaskListener;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * @author Marco Machmer
  */
 public class TestResult implements Serializable {
 
+    private static final long serialVersionUID = 1L;
+
     private final String resultFileName;
     private String result = "";
     private int totalTime = 0;
@@ -31,6 +35,19 @@ public class TestResult implements Serializable {
         this.resultFileName = resultFileName;
     }
 
+    TestResult(String resultFileName, String result, int totalTime, int numTestPasses, int numTestFailures,
+            int numCommandPasses, int numCommandFailures, int numCommandErrors) {
+        super();
+        this.resultFileName = resultFileName;
+        this.result = result;
+        this.totalTime = totalTime;
+        this.numTestPasses = numTestPasses;
+        this.numTestFailures = numTestFailures;
+        this.numCommandPasses = numCommandPasses;
+        this.numCommandFailures = numCommandFailures;
+        this.numCommandErrors = numCommandErrors;
+    }
+
     public int getNumTestPasses() {
         return this.numTestPasses;
     }
@@ -67,11 +84,36 @@ public class TestResult implements Serializable {
         return this.resultFileName;
     }
 
+    /**
+     * Gets a copy of this result for another result file with the same content.
+     */
+    TestResult withResultFileName(String resultFileName) {
+        return new TestResult(resultFileName, this.result, this.totalTime, this.numTestPasses, this.numTestFailures,
+                this.numCommandPasses, this.numCommandFailures, this.numCommandErrors);
+    }
+
     public static TestResult parse(Run<?,?> build, TaskListener listener, String resultFileName, File seleniumReportsDir) throws IOException {
+        listener.getLogger().println("parsing resultFile " + resultFileName);
+        return parse(resultFileName, seleniumReportsDir);
+    }
+
+    /**
+     * Parses the given result file without writing to a build log, so it can be
+     * called from several threads at once.
+     */
+    public static TestResult parse(String resultFileName, File seleniumReportsDir) throws IOException {
+        return parse(resultFileName, seleniumReportsDir, null);
+    }
+
+    /**
+     * Parses the given result file and adds its failed command rows to
+     * {@code failures}, unless that is {@code null}.
+     */
+    static TestResult parse(String resultFileName, File seleniumReportsDir, List<CommandFailure> failures) throws IOException {
         TestResult result = new TestResult(resultFileName);
-        listener.getLogger().println("parsing resultFile " + result.getResultFileName());
-        File reportFile = getReportFileFor(build, result, seleniumReportsDir);
+        File reportFile = getReportFileFor(null, result, seleniumReportsDir);
         InfoParser parser = new InfoParser(reportFile);
+        parser.parse(resultFileName, failures);
         result.result = parser.getString("result:");
         result.totalTime = parser.getInt("totalTime:");
         result.numTestPasses = parser.getInt("numTestPasses:");
@@ -86,88 +128,148 @@ public class TestResult implements Serializable {
         return new File(seleniumReportsDir + "/" + testResult.getResultFileName());
     }
 
+    private static final String[] INFO_NAMES = {
+        "result:", "totalTime:", "numTestPasses:", "numTestFailures:",
+        "numCommandPasses:", "numCommandFailures:", "numCommandErrors:"
+    };
+
+    /** Upper bound of the failed command rows kept per result file. */
+    static final int MAX_FAILURES_PER_FILE = 100;
+
+    /**
+     * One scanner per thread, so its buffers are reused for every file.
+     */
+    private static final ThreadLocal<HtmlReportScanner> SCANNERS = new ThreadLocal<HtmlReportScanner>() {
+        @Override
+        protected HtmlReportScanner initialValue() {
+            return new HtmlReportScanner();
+        }
+    };
+
     private static class InfoParser {
         private final File reportFile;
+        private Map<String, String> infos;
 
         public InfoParser(File reportFile) {
             super();
             this.reportFile = reportFile;
         }
 
+        /**
+         * Reads all summary infos, and the failed commands if asked for, in a
+         * single pass over the report file.
+         */
+        public void parse(String resultFileName, List<CommandFailure> failures) throws IOException {
+            ReadInfoHandler riHandler = new ReadInfoHandler(resultFileName, failures, INFO_NAMES);
+            SCANNERS.get().scan(this.reportFile, riHandler);
+            this.infos = riHandler.getInfos();
+        }
+
         public String getString(final String infoName) throws IOException {
             return retrieve(infoName);
         }
 
         public int getInt(final String infoName) throws IOException {
-            return Integer.parseInt(retrieve(infoName));
-        }
-
-        protected String retrieve(final String infoName) throws IOException {
+            String value = retrieve(infoName);
+            if (value == null) {
+                throw new IOException("Missing " + infoName + " in " + this.reportFile);
+            }
             try {
-                return parseFor(infoName);
-            } catch (ParserConfigurationException e) {
-                throw new IOException(e);
-            } catch (SAXException e) {
-                throw new IOException(e);
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid " + infoName + " '" + value + "' in " + this.reportFile, e);
             }
         }
 
-        protected String parseFor(final String infoName) throws ParserConfigurationException, SAXException, IOException {
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            factory.setValidating(false);
-            factory.setNamespaceAware(false);
-            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
-            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-
-            SAXParser saxParser = factory.newSAXParser();
-            ReadInfoHandler riHandler = new ReadInfoHandler(infoName);
-            try {
-                saxParser.parse(this.reportFile, riHandler);
-            } catch (BreakParsingException e) {
-                // break parsing
+        protected String retrieve(final String infoName) throws IOException {
+            if (this.infos == null) {
+                parse(this.reportFile.getName(), null);
             }
-            return riHandler.getInfo();
+            return this.infos.get(infoName);
         }
     }
 
-    private static class ReadInfoHandler extends DefaultHandler {
-        private final String infoName;
-        private String tempVal;
-        private boolean readInfo = false;
-        private String info;
+    /**
+     * Collects the value cell following each summary name cell. If failures
+     * are asked for and the summary reports failed commands, the scan goes on
+     * and collects the rows marked {@code status_failed}, otherwise it stops
+     * once the summary is complete.
+     */
+    private static class ReadInfoHandler implements HtmlReportScanner.Handler {
+        private final String resultFileName;
+        private final List<CommandFailure> failures;
+        private final Set<String> infoNames;
+        private final Map<String, String> infos = new HashMap<String, String>();
+        private String readInfo;
+
+        private String testName = "";
+        private String failedRowTitle;
+        private final List<String> cells = new ArrayList<String>();
+        private int failuresFound;
 
-        public ReadInfoHandler(String infoName) {
+        public ReadInfoHandler(String resultFileName, List<CommandFailure> failures, String... infoNames) {
             super();
-            this.infoName = infoName;
+            this.resultFileName = resultFileName;
+            this.failures = failures;
+            this.infoNames = new HashSet<String>(Arrays.asList(infoNames));
         }
 
-        public String getInfo() {
-            return this.info;
+        public Map<String, String> getInfos() {
+            return this.infos;
         }
 
-        @Override
-        public void endElement(String uri, String localName, String qName) throws SAXException {
-            if ("td".equals(qName)) {
-                if (this.readInfo) {
-                    this.info = this.tempVal;
-                    this.readInfo = false;
-                    throw new BreakParsingException();
-                }
-                if (this.tempVal.equals(this.infoName)) {
-                    this.readInfo = true;
-                }
+        public boolean startRow(String cssClass, String title) {
+            this.cells.clear();
+            this.failedRowTitle = null;
+            if (cssClass != null && cssClass.contains("status_failed") && !cssClass.contains("title")) {
+                this.failedRowTitle = title != null ? title : "";
             }
+            return true;
         }
 
-        @Override
-        public void characters(char[] ch, int start, int length) throws SAXException {
-            this.tempVal = new String(ch, start, length).trim();
+        public boolean cell(String text) {
+            this.cells.add(text);
+            if (this.readInfo != null) {
+                this.infos.put(this.readInfo, text);
+                this.readInfo = null;
+                return !isComplete();
+            }
+            if (this.infoNames.contains(text) && !this.infos.containsKey(text)) {
+                this.readInfo = text;
+            }
+            return true;
         }
-    }
 
-    private static class BreakParsingException extends SAXException {
-        public BreakParsingException() {
-            super();
+        public boolean endRow() {
+            if (this.failedRowTitle != null && this.cells.size() >= 2) {
+                this.failures.add(new CommandFailure(this.resultFileName, this.testName, this.cells.get(0),
+                        this.cells.get(1), this.failedRowTitle));
+                this.failuresFound++;
+            } else if (this.cells.size() == 1) {
+                // the title row of a test case table
+                this.testName = this.cells.get(0);
+            }
+            this.failedRowTitle = null;
+            this.cells.clear();
+            return !isComplete();
+        }
+
+        private boolean isComplete() {
+            if (this.infos.size() < this.infoNames.size()) {
+                return false;
+            }
+            if (this.failures == null || this.failuresFound >= MAX_FAILURES_PER_FILE) {
+                return true;
+            }
+            return intInfo("numCommandFailures:") + intInfo("numCommandErrors:") <= this.failuresFound;
+        }
+
+        private int intInfo(String infoName) {
+            try {
+                return Integer.parseInt(this.infos.get(infoName));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
         }
     }
 }
@@ -0,0 +1,213 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Stores the {@link TestResult}s of a build in a compact sidecar file next to
+ * {@code build.xml}, so they are not part of the build record.
+ * <p>
+ * The file holds an interned table of all strings followed by one column of
+ * ints per value. Reading it back yields a {@link List} view over these
+ * columns instead of one object per result.
+ */
+final class TestResultStore {
+
+    static final String FILE_NAME = "seleniumResults.dat";
+
+    /** Marks the results of a publish stopped early in fail fast mode. */
+    static final String INCOMPLETE_MARKER_NAME = "seleniumResults.incomplete";
+
+    private static final int MAGIC = 0x53485231;
+    private static final int VERSION = 1;
+
+    private TestResultStore() {
+    }
+
+    static File getResultsFile(File buildRootDir) {
+        return new File(buildRootDir, FILE_NAME);
+    }
+
+    static File getIncompleteMarker(File buildRootDir) {
+        return new File(buildRootDir, INCOMPLETE_MARKER_NAME);
+    }
+
+    static void write(File file, List<TestResult> results) throws IOException {
+        int n = results.size();
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        int[] names = new int[n];
+        int[] states = new int[n];
+        for (int i = 0; i < n; i++) {
+            TestResult r = results.get(i);
+            names[i] = intern(r.getResultFileName(), index, strings);
+            states[i] = intern(r.getResult(), index, strings);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                out.writeUTF(s);
+            }
+            writeColumn(out, names);
+            writeColumn(out, states);
+            int[] column = new int[n];
+            for (int c = 0; c < ResultTable.COUNTERS; c++) {
+                for (int i = 0; i < n; i++) {
+                    column[i] = ResultTable.counter(results.get(i), c);
+                }
+                writeColumn(out, column);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the results of all shards of a build, see {@link ReportShards}.
+     * Shards without results, still publishing or aborted, are left out.
+     */
+    static List<TestResult> readAll(File buildRootDir) throws IOException {
+        List<TestResult> results = null;
+        for (File root : ReportShards.getRoots(buildRootDir)) {
+            File file = getResultsFile(root);
+            if (!file.isFile()) {
+                continue;
+            }
+            List<TestResult> shardResults = read(file);
+            if (results == null) {
+                results = shardResults;
+            } else {
+                if (!(results instanceof ArrayList)) {
+                    results = new ArrayList<TestResult>(results);
+                }
+                results.addAll(shardResults);
+            }
+        }
+        return results != null ? results : new ArrayList<TestResult>();
+    }
+
+    /**
+     * Whether any shard of the build stored results.
+     */
+    static boolean exists(File buildRootDir) {
+        for (File root : ReportShards.getRoots(buildRootDir)) {
+            if (getResultsFile(root).isFile()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static List<TestResult> read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported result store " + file);
+            }
+            int n = in.readInt();
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            int[] names = readColumn(in, n);
+            int[] states = readColumn(in, n);
+            int[][] counters = new int[ResultTable.COUNTERS][];
+            for (int c = 0; c < ResultTable.COUNTERS; c++) {
+                counters[c] = readColumn(in, n);
+            }
+            return new ResultTable(strings, names, states, counters);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int intern(String s, Map<String, Integer> index, List<String> strings) {
+        if (s == null) {
+            s = "";
+        }
+        Integer i = index.get(s);
+        if (i == null) {
+            i = strings.size();
+            index.put(s, i);
+            strings.add(s);
+        }
+        return i;
+    }
+
+    private static void writeColumn(DataOutputStream out, int[] column) throws IOException {
+        for (int v : column) {
+            out.writeInt(v);
+        }
+    }
+
+    private static int[] readColumn(DataInputStream in, int n) throws IOException {
+        int[] column = new int[n];
+        for (int i = 0; i < n; i++) {
+            column[i] = in.readInt();
+        }
+        return column;
+    }
+
+    /**
+     * Read-only list over the stored columns, creating the {@link TestResult}
+     * of a row only when it is requested.
+     */
+    private static final class ResultTable extends AbstractList<TestResult> implements RandomAccess {
+        static final int COUNTERS = 6;
+
+        private final String[] strings;
+        private final int[] names;
+        private final int[] states;
+        private final int[][] counters;
+
+        ResultTable(String[] strings, int[] names, int[] states, int[][] counters) {
+            this.strings = strings;
+            this.names = names;
+            this.states = states;
+            this.counters = counters;
+        }
+
+        static int counter(TestResult r, int c) {
+            switch (c) {
+                case 0: return r.getTotalTime();
+                case 1: return r.getNumTestPasses();
+                case 2: return r.getNumTestFailures();
+                case 3: return r.getNumCommandPasses();
+                case 4: return r.getNumCommandFailures();
+                default: return r.getNumCommandErrors();
+            }
+        }
+
+        @Override
+        public TestResult get(int i) {
+            return new TestResult(this.strings[this.names[i]], this.strings[this.states[i]],
+                    this.counters[0][i], this.counters[1][i], this.counters[2][i],
+                    this.counters[3][i], this.counters[4][i], this.counters[5][i]);
+        }
+
+        @Override
+        public int size() {
+            return this.names.length;
+        }
+    }
+}
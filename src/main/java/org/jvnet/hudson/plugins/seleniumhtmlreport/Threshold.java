@@ -0,0 +1,71 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.Serializable;
+
+import hudson.Util;
+
+/**
+ * A limit which is either absolute, like {@code 5}, or a percentage of a
+ * total, like {@code 10%}. A value exceeds the threshold if it is greater than
+ * the limit, so {@code 0} is exceeded by any occurrence.
+ */
+final class Threshold implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double limit;
+    private final boolean percentage;
+
+    private Threshold(double limit, boolean percentage) {
+        this.limit = limit;
+        this.percentage = percentage;
+    }
+
+    /**
+     * Parses the given threshold, {@code null} if it is blank.
+     *
+     * @throws IllegalArgumentException if it is neither a non-negative
+     *         number nor a percentage
+     */
+    static Threshold parse(String value) {
+        String s = Util.fixEmptyAndTrim(value);
+        if (s == null) {
+            return null;
+        }
+        boolean percentage = s.endsWith("%");
+        if (percentage) {
+            s = s.substring(0, s.length() - 1).trim();
+        }
+        double limit;
+        try {
+            limit = Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number or percentage: " + value);
+        }
+        if (limit < 0 || Double.isNaN(limit) || Double.isInfinite(limit)) {
+            throw new IllegalArgumentException("Not a number or percentage: " + value);
+        }
+        return new Threshold(limit, percentage);
+    }
+
+    boolean isPercentage() {
+        return this.percentage;
+    }
+
+    /**
+     * Whether the given value exceeds this threshold, percentages are taken
+     * of {@code total}.
+     */
+    boolean isExceededBy(long value, long total) {
+        if (this.percentage) {
+            return total > 0 && value * 100.0 > this.limit * total;
+        }
+        return value > this.limit;
+    }
+
+    @Override
+    public String toString() {
+        String s = this.limit == Math.rint(this.limit) ? Long.toString((long) this.limit) : Double.toString(this.limit);
+        return this.percentage ? s + "%" : s;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Client side paging of the selenium results table. Rows are fetched page by
+ * page from the "table" endpoint of the SeleniumHtmlReportAction.
+ */
+(function () {
+    function init(table) {
+        var state = {start: 0, size: parseInt(table.getAttribute("data-page-size"), 10), sort: "", order: "asc"};
+        var rootUrl = table.getAttribute("data-root-url");
+        var body = table.querySelector("tbody.selenium-results-rows");
+        var info = document.getElementById("selenium-results-info");
+        var filter = document.getElementById("selenium-results-filter");
+        var status = document.getElementById("selenium-results-status");
+        var numeric = ["numTestTotal", "numTestPasses", "numTestFailures", "numCommandPasses",
+            "numCommandFailures", "numCommandErrors", "totalTime"];
+
+        function cell(row, text, center) {
+            var td = document.createElement("td");
+            if (center) {
+                td.setAttribute("align", "center");
+            }
+            if (text !== undefined) {
+                td.textContent = text;
+            }
+            row.appendChild(td);
+            return td;
+        }
+
+        function render(page) {
+            while (body.firstChild) {
+                body.removeChild(body.firstChild);
+            }
+            page.results.forEach(function (r) {
+                var row = document.createElement("tr");
+                var icon = cell(row, undefined, true);
+                if (r.result === "passed" || r.result === "failed") {
+                    var img = document.createElement("img");
+                    img.src = rootUrl + "/plugin/seleniumhtmlreport/icons/" + (r.result === "passed" ? "ok.gif" : "fail.gif");
+                    img.alt = r.result === "passed" ? "o" : "x";
+                    icon.appendChild(img);
+                }
+                var link = document.createElement("a");
+                link.href = r.resultFileName.split("/").map(encodeURIComponent).join("/");
+                link.target = "_blank";
+                link.textContent = r.resultFileName;
+                cell(row).appendChild(link);
+                numeric.forEach(function (name) {
+                    cell(row, r[name], true);
+                });
+                body.appendChild(row);
+            });
+            var last = Math.min(page.start + page.results.length, page.matching);
+            info.textContent = (page.matching === 0 ? 0 : page.start + 1) + " - " + last + " of " + page.matching
+                + (page.matching !== page.total ? " (" + page.total + " total)" : "");
+            state.matching = page.matching;
+        }
+
+        function load() {
+            var query = "table?start=" + state.start + "&size=" + state.size
+                + "&sort=" + encodeURIComponent(state.sort) + "&order=" + state.order
+                + "&status=" + encodeURIComponent(status.value) + "&q=" + encodeURIComponent(filter.value);
+            var xhr = new XMLHttpRequest();
+            xhr.open("GET", query);
+            xhr.onload = function () {
+                if (xhr.status === 200) {
+                    render(JSON.parse(xhr.responseText));
+                }
+            };
+            xhr.send();
+        }
+
+        table.querySelectorAll("thead td[data-sort]").forEach(function (td) {
+            td.style.cursor = "pointer";
+            td.addEventListener("click", function () {
+                var column = td.getAttribute("data-sort");
+                state.order = state.sort === column && state.order === "asc" ? "desc" : "asc";
+                state.sort = column;
+                state.start = 0;
+                load();
+            });
+        });
+        document.getElementById("selenium-results-prev").addEventListener("click", function () {
+            state.start = Math.max(0, state.start - state.size);
+            load();
+        });
+        document.getElementById("selenium-results-next").addEventListener("click", function () {
+            if (state.start + state.size < state.matching) {
+                state.start += state.size;
+                load();
+            }
+        });
+        var timer;
+        filter.addEventListener("input", function () {
+            clearTimeout(timer);
+            timer = setTimeout(function () {
+                state.start = 0;
+                load();
+            }, 300);
+        });
+        status.addEventListener("change", function () {
+            state.start = 0;
+            load();
+        });
+        load();
+    }
+
+    document.addEventListener("DOMContentLoaded", function () {
+        var table = document.getElementById("selenium-results");
+        if (table) {
+            init(table);
+        }
+    });
+})();
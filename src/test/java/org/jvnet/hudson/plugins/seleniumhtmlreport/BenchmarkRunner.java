@@ -0,0 +1,44 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of this package, only with {@code mvn test -Dbenchmark}.
+ * The corpus size can be changed with {@code -Dbenchmark.files=...} and
+ * {@code -Dbenchmark.rows=...}.
+ */
+public class BenchmarkRunner {
+
+    @Test
+    public void runJmhBenchmarks() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(BenchmarkRunner.class.getPackage().getName() + "\\.\\w+Benchmark")
+                .mode(Mode.AverageTime)
+                .timeUnit(TimeUnit.MILLISECONDS)
+                .warmupIterations(2)
+                .measurementIterations(5)
+                .forks(1)
+                .shouldFailOnError(true)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-report.json");
+        param(options, "files");
+        param(options, "rows");
+        new Runner(options.build()).run();
+    }
+
+    private static void param(ChainedOptionsBuilder options, String name) {
+        String value = System.getProperty("benchmark." + name);
+        if (value != null && !value.isEmpty()) {
+            options.param(name, value);
+        }
+    }
+}
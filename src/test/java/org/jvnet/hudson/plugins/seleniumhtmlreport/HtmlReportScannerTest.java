@@ -0,0 +1,186 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HtmlReportScannerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String SUMMARY = "<table>\n"
+            + "<tr><td>result:</td><td>failed</td></tr>\n"
+            + "<tr><td>totalTime:</td><td>17</td></tr>\n"
+            + "<tr><td>numTestPasses:</td><td>3</td></tr>\n"
+            + "<tr><td>numTestFailures:</td><td>1</td></tr>\n"
+            + "<tr><td>numCommandPasses:</td><td>40</td></tr>\n"
+            + "<tr><td>numCommandFailures:</td><td>2</td></tr>\n"
+            + "<tr><td>numCommandErrors:</td><td>1</td></tr>\n"
+            + "</table>\n";
+
+    @Test
+    public void parsesWellFormedSummary() throws Exception {
+        assertSummary(parse("<html><body>" + SUMMARY + "</body></html>"));
+    }
+
+    /**
+     * Upper case tags, missing end tags, unquoted attributes, entities and
+     * markup inside the cells.
+     */
+    @Test
+    public void toleratesMalformedMarkup() throws Exception {
+        String html = "<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01//EN\">\n"
+                + "<HTML><HEAD><TITLE>Suite & results</TITLE>\n"
+                + "<script>if (a < b) document.write('<td>result:</td><td>passed</td>');</script>\n"
+                + "<style>td { color: red }</style></HEAD>\n"
+                + "<BODY bgcolor=white><p>unclosed paragraph\n"
+                + "<!-- <td>result:</td><td>passed</td> -->\n"
+                + "<TABLE border=1>\n"
+                + "<TR class=title><TD colspan=2>1 < 2 &amp;&amp; broken &unknown; markup\n"
+                + "<TR><TD><b>result:</b><TD>&nbsp;failed&nbsp;\n"
+                + "<TR><TD>totalTime:<TD>1<!-- split -->7</TD>\n"
+                + "<TR><TD>numTestPasses:</TD><TD>\n  3\n</TD></TR>\n"
+                + "<TR><TD>numTestFailures:<TD><span>1</span>\n"
+                + "<TR><TD>numCommandPasses:<TD>&#52;&#x30;\n"
+                + "<TR><TD>numCommandFailures:<TD>2\n"
+                + "<TR><TD>numCommandErrors:<TD>1\n"
+                + "</TABLE>\n";
+        assertSummary(parse(html));
+    }
+
+    @Test
+    public void recoversFromUnbalancedQuote() throws Exception {
+        StringBuilder html = new StringBuilder("<table><tr title=\"never closed><td>x</td></tr>");
+        for (int i = 0; i < 2000; i++) {
+            html.append("<tr><td>filler ").append(i).append("</td><td>text</td></tr>\n");
+        }
+        html.append(SUMMARY);
+        assertSummary(parse(html.toString()));
+    }
+
+    /**
+     * Cells and tags spanning the read buffer must not lose any text, whatever
+     * the buffer size.
+     */
+    @Test
+    public void cellsAcrossBufferBoundaries() throws Exception {
+        File file = write("<table><tr class='status_failed' title='Element &quot;q&quot; not found'>"
+                + "<td>verifyTextPresent</td><td>some   long\ntarget text</td><td></td></tr>"
+                + "<!-- comment --><tr><td>a &lt; b</td></tr></table>");
+        List<String> expected = scan(file, HtmlReportScanner.DEFAULT_BUFFER_SIZE);
+        assertEquals("[row status_failed|Element \"q\" not found, verifyTextPresent, some long target text, , end,"
+                + " row null|null, a < b, end]", expected.toString());
+        for (int size = 1; size < 40; size++) {
+            assertEquals("buffer size " + size, expected, scan(file, size));
+        }
+    }
+
+    @Test
+    public void findsSummaryInLargeMalformedReport() throws Exception {
+        StringBuilder html = new StringBuilder("<html><body><table>");
+        for (int i = 0; i < 50000; i++) {
+            html.append("<TR class=status_passed><TD>open<TD>/page/").append(i).append("?a=1&b=2<td>\n");
+        }
+        html.append("</table>").append(SUMMARY.replace("<td>", "<TD >").replace("</td>", ""));
+        TestResult result = parse(html.toString());
+        assertSummary(result);
+    }
+
+    @Test
+    public void collectsFailedCommands() throws Exception {
+        String html = "<html><body>" + SUMMARY
+                + "<table><thead><tr class=\"title status_failed\"><td colspan=\"3\">LoginTest</td></tr></thead>\n"
+                + "<tr class=\"status_done\"><td>open</td><td>/login</td><td></td></tr>\n"
+                + "<tr class=\"status_failed\" title=\"Element id=user not found\"><td>type</td><td>id=user</td><td>bob</td></tr>\n"
+                + "</table>\n"
+                + "<table><tr class='title status_failed'><td colspan=3>SearchTest</td></tr>\n"
+                + "<tr class='status_failed' title='Timed out after 30000ms'><td>waitForTextPresent<td>Results\n"
+                + "<tr class='status_failed' title='Element q not found'><td>click<td>q\n"
+                + "<tr class='status_failed' title='never reached'><td>click<td>never\n"
+                + "</table></body></html>";
+        File file = write(html);
+        List<CommandFailure> failures = new ArrayList<CommandFailure>();
+        TestResult result = TestResult.parse(file.getName(), file.getParentFile(), failures);
+        assertSummary(result);
+        // the summary reports two failures and one error, so the scan stops after three rows
+        assertEquals(3, failures.size());
+        assertEquals("LoginTest", failures.get(0).getTestName());
+        assertEquals("type", failures.get(0).getCommand());
+        assertEquals("id=user", failures.get(0).getTarget());
+        assertEquals("Element id=user not found", failures.get(0).getMessage());
+        assertEquals(file.getName(), failures.get(0).getResultFileName());
+        assertEquals("SearchTest", failures.get(2).getTestName());
+        assertEquals("click", failures.get(2).getCommand());
+    }
+
+    /**
+     * Numeric references beyond unicode stay as they are instead of failing
+     * the file.
+     */
+    @Test
+    public void keepsInvalidCharacterReferences() throws Exception {
+        String html = "<html><body>" + SUMMARY
+                + "<table><tr class=\"title status_failed\"><td colspan=\"3\">Login&#x110000;Test</td></tr>\n"
+                + "<tr class=\"status_failed\" title=\"&#99999999; &#-1; &#x41;\"><td>type</td><td>&#65;&#x1F600;</td><td></td></tr>\n"
+                + "</table></body></html>";
+        File file = write(html);
+        List<CommandFailure> failures = new ArrayList<CommandFailure>();
+        TestResult result = TestResult.parse(file.getName(), file.getParentFile(), failures);
+        assertSummary(result);
+        assertEquals("Login&#x110000;Test", failures.get(0).getTestName());
+        assertEquals("&#99999999; &#-1; A", failures.get(0).getMessage());
+        assertEquals("A\uD83D\uDE00", failures.get(0).getTarget());
+    }
+
+    private static void assertSummary(TestResult result) {
+        assertEquals("failed", result.getResult());
+        assertEquals(17, result.getTotalTime());
+        assertEquals(3, result.getNumTestPasses());
+        assertEquals(1, result.getNumTestFailures());
+        assertEquals(40, result.getNumCommandPasses());
+        assertEquals(2, result.getNumCommandFailures());
+        assertEquals(1, result.getNumCommandErrors());
+    }
+
+    private TestResult parse(String html) throws IOException {
+        File file = write(html);
+        return TestResult.parse(file.getName(), file.getParentFile());
+    }
+
+    private File write(String html) throws IOException {
+        File file = tmp.newFile();
+        Files.write(file.toPath(), html.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<String> scan(File file, int bufferSize) throws IOException {
+        final List<String> events = new ArrayList<String>();
+        new HtmlReportScanner(bufferSize).scan(file, new HtmlReportScanner.Handler() {
+            public boolean startRow(String cssClass, String title) {
+                events.add("row " + cssClass + "|" + title);
+                return true;
+            }
+
+            public boolean cell(String text) {
+                events.add(text);
+                return true;
+            }
+
+            public boolean endRow() {
+                events.add("end");
+                return true;
+            }
+        });
+        return events;
+    }
+}
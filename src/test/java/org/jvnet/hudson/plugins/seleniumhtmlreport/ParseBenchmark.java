@@ -0,0 +1,63 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import hudson.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Scanning and parsing of a synthetic report corpus.
+ */
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param("1000")
+    public int files;
+
+    @Param("50")
+    public int rows;
+
+    private File dir;
+    private List<String> names;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("selenium-corpus").toFile();
+        ReportCorpus.generate(this.dir, this.files, this.rows, 10);
+        this.names = Arrays.asList(Util.createFileSet(this.dir, "**/*.html").getDirectoryScanner().getIncludedFiles());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Util.deleteRecursive(this.dir);
+    }
+
+    /**
+     * {@link TestResult#parse(String, File)} of every file, on one thread.
+     */
+    @Benchmark
+    public void parseSequential(Blackhole bh) throws IOException {
+        for (String name : this.names) {
+            bh.consume(TestResult.parse(name, this.dir));
+        }
+    }
+
+    /**
+     * Scan and parse of the whole directory as done by the publisher.
+     */
+    @Benchmark
+    public Object createResults() throws Exception {
+        return new ParseReportsCallable(0).invoke(this.dir, null);
+    }
+}
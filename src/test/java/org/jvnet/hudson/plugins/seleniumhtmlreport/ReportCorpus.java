@@ -0,0 +1,63 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Generates synthetic selenium html suite reports, for benchmarks and scale
+ * tests. Every {@code failureEvery}-th file fails one command.
+ */
+public final class ReportCorpus {
+
+    private ReportCorpus() {
+    }
+
+    /**
+     * Writes {@code files} reports with {@code rows} command rows each into
+     * {@code dir}, spread over a few sub directories.
+     */
+    public static void generate(File dir, int files, int rows, int failureEvery) throws IOException {
+        for (int i = 0; i < files; i++) {
+            File file = new File(dir, "suite" + (i % 10) + "/TestSuite-" + i + ".html");
+            file.getParentFile().mkdirs();
+            Writer w = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8);
+            try {
+                write(w, "TestSuite-" + i, rows, failureEvery > 0 && i % failureEvery == 0);
+            } finally {
+                w.close();
+            }
+        }
+    }
+
+    static void write(Writer w, String name, int rows, boolean failed) throws IOException {
+        int failures = failed ? 1 : 0;
+        w.write("<html>\n<head><title>" + name + "</title></head>\n<body>\n");
+        w.write("<table cellpadding=\"2\" cellspacing=\"0\" border=\"1\">\n");
+        w.write("<tr><td rowspan=\"1\" colspan=\"3\">" + name + "</td></tr>\n");
+        summaryRow(w, "result:", failed ? "failed" : "passed");
+        summaryRow(w, "totalTime:", Integer.toString(1 + rows / 10));
+        summaryRow(w, "numTestTotal:", "1");
+        summaryRow(w, "numTestPasses:", failed ? "0" : "1");
+        summaryRow(w, "numTestFailures:", Integer.toString(failures));
+        summaryRow(w, "numCommandPasses:", Integer.toString(rows - failures));
+        summaryRow(w, "numCommandFailures:", Integer.toString(failures));
+        summaryRow(w, "numCommandErrors:", "0");
+        w.write("<tr><td>" + name + "</td><td><table border=\"1\">\n");
+        w.write("<tr><td rowspan=\"1\" colspan=\"3\">" + name + "Case</td></tr>\n");
+        for (int r = 0; r < rows; r++) {
+            boolean failedRow = failed && r == rows - 1;
+            w.write("<tr class=\"" + (failedRow ? "status_failed\" title=\"Element q" + r + " not found" : "status_passed")
+                    + "\">\n<td>" + (r % 2 == 0 ? "type" : "verifyTextPresent") + "</td>\n<td>q" + r
+                    + "</td>\n<td>value &amp; more " + r + "</td>\n</tr>\n");
+        }
+        w.write("</table></td></tr>\n</table>\n</body>\n</html>\n");
+    }
+
+    private static void summaryRow(Writer w, String key, String value) throws IOException {
+        w.write("<tr>\n<td>" + key + "</td>\n<td>" + value + "</td>\n</tr>\n");
+    }
+}
@@ -0,0 +1,72 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReportDiffTest {
+
+    @Test
+    public void showsOnlyChangedFiles() {
+        List<TestResult> baseline = Arrays.asList(
+                result("login.html", true, 10),
+                result("search.html", false, 10),
+                result("cart.html", true, 10),
+                result("checkout.html", true, 10),
+                result("stable.html", true, 10));
+        List<TestResult> current = Arrays.asList(
+                result("shard-2/stable.html", true, 12),
+                result("checkout.html", true, 30),
+                result("cart.html", true, 20),
+                result("search.html", true, 9),
+                result("login.html", false, 11),
+                result("profile.html", true, 5));
+        ReportDiff diff = ReportDiff.compute(current, 7, baseline, Threshold.parse("50%"));
+
+        assertEquals("[REGRESSED login.html +1, FIXED search.html -1, SLOWER checkout.html +20,"
+                + " SLOWER cart.html +10, ADDED profile.html +0]", toString(diff.getRows()));
+        assertEquals(1, diff.getRegressed());
+        assertEquals(2, diff.getSlowerCount());
+        assertEquals(1, diff.getUnchanged());
+        assertEquals(7, diff.getBaselineNumber());
+    }
+
+    @Test
+    public void listsRemovedFilesAndIgnoresDurations() {
+        List<TestResult> baseline = Arrays.asList(result("shard-1/old.html", true, 1), result("kept.html", true, 1));
+        List<TestResult> current = Arrays.asList(result("kept.html", true, 100));
+        ReportDiff diff = ReportDiff.compute(current, 1, baseline, null);
+        assertEquals("[REMOVED old.html +0]", toString(diff.getRows()));
+        assertEquals("", diff.getSlower());
+    }
+
+    @Test
+    public void joinsLargeBuilds() {
+        List<TestResult> baseline = new ArrayList<TestResult>();
+        List<TestResult> current = new ArrayList<TestResult>();
+        for (int i = 0; i < 10000; i++) {
+            baseline.add(result("suite/TestSuite-" + i + ".html", true, 10));
+            current.add(result("suite/TestSuite-" + (9999 - i) + ".html", i % 1000 != 0, 10));
+        }
+        ReportDiff diff = ReportDiff.compute(current, 1, baseline, Threshold.parse("50%"));
+        assertEquals(10, diff.getRegressed());
+        assertEquals(9990, diff.getUnchanged());
+    }
+
+    private static TestResult result(String name, boolean passed, int totalTime) {
+        return new TestResult(name, passed ? "passed" : "failed", totalTime, 1, passed ? 0 : 1, 1, passed ? 0 : 1, 0);
+    }
+
+    private static String toString(List<ReportDiff.Row> rows) {
+        List<String> s = new ArrayList<String>();
+        for (ReportDiff.Row row : rows) {
+            int delta = row.getDurationDelta();
+            s.add(row.getChange() + " " + row.getName() + " " + (delta >= 0 ? "+" : "") + delta);
+        }
+        return s.toString();
+    }
+}
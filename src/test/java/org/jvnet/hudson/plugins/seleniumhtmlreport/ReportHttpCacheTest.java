@@ -0,0 +1,79 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class ReportHttpCacheTest {
+
+    @Test
+    public void matchesEntityTags() {
+        assertTrue(ReportHttpCache.matches("\"a\"", "\"a\""));
+        assertTrue(ReportHttpCache.matches("\"b\", W/\"a\"", "\"a\""));
+        assertTrue(ReportHttpCache.matches("*", "\"a\""));
+        assertFalse(ReportHttpCache.matches("\"a-gz\"", "\"a\""));
+        assertFalse(ReportHttpCache.matches(null, "\"a\""));
+        assertTrue(ReportHttpCache.matches("W/\"a\"", ReportHttpCache.weakEtag("a")));
+    }
+
+    @Test
+    public void acceptsGzip() {
+        assertTrue(ReportHttpCache.acceptsGzip("gzip, deflate, br"));
+        assertTrue(ReportHttpCache.acceptsGzip("deflate;q=1.0, GZIP;q=0.5"));
+        assertTrue(ReportHttpCache.acceptsGzip("*"));
+        assertFalse(ReportHttpCache.acceptsGzip("gzip;q=0"));
+        assertFalse(ReportHttpCache.acceptsGzip("identity"));
+        assertFalse(ReportHttpCache.acceptsGzip(null));
+    }
+
+    @Test
+    public void compressibleTypes() {
+        assertTrue(ReportHttpCache.isCompressible("suite/result.HTML"));
+        assertTrue(ReportHttpCache.isCompressible("style.css"));
+        assertFalse(ReportHttpCache.isCompressible("screenshot.png"));
+        assertFalse(ReportHttpCache.isCompressible("README"));
+    }
+
+    /**
+     * A raw deflate stream, as stored in a zip entry, becomes valid gzip.
+     */
+    @Test
+    public void wrapsDeflatedDataAsGzip() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("<tr><td>open</td><td>/page/").append(i).append("</td></tr>\n");
+        }
+        byte[] content = text.toString().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(deflated, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        out.write(content);
+        out.close();
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        ReportHttpCache.writeGzip(new ByteArrayInputStream(deflated.toByteArray()), crc.getValue(), content.length, gzip);
+        assertArrayEquals(content, readAll(new GZIPInputStream(new ByteArrayInputStream(gzip.toByteArray()))));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
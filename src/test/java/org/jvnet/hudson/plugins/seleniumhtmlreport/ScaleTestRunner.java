@@ -0,0 +1,187 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Publishes many builds of synthetic reports and checks publishing, memory
+ * and report browsing against budgets, only with {@code mvn test -DscaleTest}.
+ * Sizes and budgets can be changed with {@code scale.*} system properties.
+ */
+public class ScaleTestRunner {
+
+    private static final int BUILDS = intProperty("builds", 20);
+    private static final int FILES = intProperty("files", 2000);
+    private static final int ROWS = intProperty("rows", 50);
+    private static final int THREADS = intProperty("threads", 8);
+    private static final int REQUESTS = intProperty("requests", 2000);
+
+    /** Slowest publish, per 1000 result files. */
+    private static final int PUBLISH_MILLIS_PER_1000_FILES = intProperty("budget.publishMillisPer1000Files", 5000);
+    /** Retained heap of a loaded build with its report action. */
+    private static final int HEAP_KB_PER_BUILD = intProperty("budget.heapKbPerBuild", 512);
+    /** Median time to render the report page of a build. */
+    private static final int RENDER_MILLIS = intProperty("budget.renderMillis", 1000);
+    /** Report files served per second by all threads together. */
+    private static final int REQUESTS_PER_SECOND = intProperty("budget.requestsPerSecond", 200);
+
+    @Rule
+    public JenkinsRule story = new JenkinsRule();
+
+    @Test
+    public void publishAndBrowse() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("scaleTest"));
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        ReportCorpus.generate(new File(story.jenkins.getWorkspaceFor(p).getRemote(), "reports"), FILES, ROWS, 10);
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: 'reports'])\n"
+                + "}", true));
+
+        long[] publishMillis = new long[BUILDS];
+        for (int i = 0; i < BUILDS; i++) {
+            WorkflowRun b = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+            publishMillis[i] = b.getAction(SeleniumHtmlReportAction.class).getTimings().getTotalMillis();
+        }
+        long slowestPublish = max(publishMillis);
+        report("slowest publish of " + FILES + " files", slowestPublish, "ms");
+        assertThat(slowestPublish, lessThanOrEqualTo((long) PUBLISH_MILLIS_PER_1000_FILES * FILES / 1000));
+
+        checkHeapAfterReload(p);
+        WorkflowRun last = p.getLastBuild();
+        checkRenderLatency(last);
+        checkReportThroughput(last);
+    }
+
+    private void checkHeapAfterReload(WorkflowJob p) throws Exception {
+        story.jenkins.reload();
+        p = story.jenkins.getItemByFullName("p", WorkflowJob.class);
+        long before = usedHeap();
+        // strongly held, so the loaded builds cannot be collected while measuring
+        List<SeleniumHtmlReportAction> actions = new ArrayList<SeleniumHtmlReportAction>();
+        for (WorkflowRun b : p.getBuilds()) {
+            SeleniumHtmlReportAction action = b.getAction(SeleniumHtmlReportAction.class);
+            action.getSummary();
+            actions.add(action);
+        }
+        long perBuildKb = Math.max(0, usedHeap() - before) / 1024 / BUILDS;
+        assertEquals(BUILDS, actions.size());
+        report("heap per loaded build", perBuildKb, "KB");
+        assertThat(perBuildKb, lessThanOrEqualTo((long) HEAP_KB_PER_BUILD));
+    }
+
+    private void checkRenderLatency(WorkflowRun b) throws Exception {
+        JenkinsRule.WebClient wc = story.createWebClient();
+        wc.getOptions().setJavaScriptEnabled(false);
+        wc.goTo(b.getUrl() + "seleniumhtmlreport/");
+        long[] millis = new long[21];
+        for (int i = 0; i < millis.length; i++) {
+            long start = System.nanoTime();
+            wc.goTo(b.getUrl() + "seleniumhtmlreport/");
+            wc.goTo(b.getUrl() + "seleniumhtmlreport/table?sort=totalTime&order=desc", "application/json");
+            millis[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        Arrays.sort(millis);
+        long median = millis[millis.length / 2];
+        report("median report page render", median, "ms");
+        assertThat(median, lessThanOrEqualTo((long) RENDER_MILLIS));
+    }
+
+    private void checkReportThroughput(WorkflowRun b) throws Exception {
+        final String base = story.getURL() + b.getUrl() + "seleniumhtmlreport/";
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(REQUESTS);
+            long start = System.nanoTime();
+            for (int i = 0; i < REQUESTS; i++) {
+                final int file = i % FILES;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        fetch(new URL(base + "suite" + (file % 10) + "/TestSuite-" + file + ".html"));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+            long perSecond = REQUESTS * 1000L / Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            report("report files served with " + THREADS + " threads", perSecond, "per second");
+            assertThat(perSecond, greaterThanOrEqualTo((long) REQUESTS_PER_SECOND));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void fetch(URL url) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) url.openConnection();
+        try {
+            if (c.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException(url + " answered " + c.getResponseCode());
+            }
+            InputStream in = c.getInputStream();
+            try {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) >= 0) {
+                    // drain the body
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            c.disconnect();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long max(long[] values) {
+        long max = 0;
+        for (long v : values) {
+            max = Math.max(max, v);
+        }
+        return max;
+    }
+
+    private static void report(String what, long value, String unit) {
+        System.out.println("Scale test: " + what + ": " + value + " " + unit);
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty("scale." + name);
+        return value != null && !value.isEmpty() ? Integer.parseInt(value) : defaultValue;
+    }
+}
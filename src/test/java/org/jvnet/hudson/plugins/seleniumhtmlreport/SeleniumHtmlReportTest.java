@@ -1,16 +1,29 @@
 package org.jvnet.hudson.plugins.seleniumhtmlreport;
 
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.StringContains.containsString;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
 
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
 import hudson.FilePath;
+import hudson.model.Label;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
 import jenkins.tasks.SimpleBuildStep;
+import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
@@ -30,6 +43,9 @@ public class SeleniumHtmlReportTest {
         SeleniumHtmlReportPublisher reportPublisher = new SeleniumHtmlReportPublisher();
         reportPublisher.setTestResultsDir(".");
         reportPublisher.setFailureIfExceptionOnParsingResultFiles(false);
+        reportPublisher.setParallelism(2);
+        reportPublisher.setIncludes("reports/**");
+        reportPublisher.setExcludes("**/*.png");
         CoreStep step = new CoreStep(reportPublisher);
         step = new StepConfigTester(story).configRoundTrip(step);
         SimpleBuildStep delegate = step.delegate;
@@ -39,6 +55,9 @@ public class SeleniumHtmlReportTest {
         SeleniumHtmlReportPublisher s = (SeleniumHtmlReportPublisher) delegate;
         assertEquals(".", s.getTestResultsDir());
         assertFalse(s.getFailureIfExceptionOnParsingResultFiles());
+        assertEquals(2, s.getParallelism());
+        assertEquals("reports/**", s.getIncludes());
+        assertEquals("**/*.png", s.getExcludes());
     }
 
     @Test
@@ -53,6 +72,9 @@ public class SeleniumHtmlReportTest {
         SeleniumHtmlReportPublisher s = (SeleniumHtmlReportPublisher) delegate;
         assertEquals("target", s.getTestResultsDir());
         assertTrue(s.getFailureIfExceptionOnParsingResultFiles());
+        assertEquals(0, s.getParallelism());
+        assertEquals("**/*", s.getIncludes());
+        assertEquals("", s.getExcludes());
     }
 
     /**
@@ -71,7 +93,544 @@ public class SeleniumHtmlReportTest {
         WorkflowRun b = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
 
         story.assertLogContains("parsing resultFile result.html", b);
+        story.assertLogContains("Selenium report published in ", b);
         assertEquals(42, b.getAction(SeleniumHtmlReportAction.class).getTotalTime());
+        PublishTimings timings = b.getAction(SeleniumHtmlReportAction.class).getTimings();
+        assertEquals(1, timings.getParseFiles());
+        assertEquals(1, timings.getTransferFiles());
+        assertTrue(timings.getTransferBytes() > 0);
+        TestResult result = TestResultStore.read(TestResultStore.getResultsFile(b.getRootDir())).get(0);
+        assertEquals("result.html", result.getResultFileName());
+        assertEquals("passed", result.getResult());
+        assertEquals(42, result.getNumCommandPasses());
+        assertTrue(SummaryIndex.getFile(p).isFile());
+        assertEquals(1, SummaryIndex.read(p).size());
+        assertEquals(42, SummaryIndex.read(p).get(0).summary.getTotalTime());
+        assertThat(p.getAction(SeleniumHtmlReportProjectAction.class), instanceOf(SeleniumHtmlReportProjectAction.class));
+
+        JSONObject page = JSONObject.fromObject(story.createWebClient()
+                .goTo(b.getUrl() + "seleniumhtmlreport/table?sort=totalTime&order=desc&status=passed&q=RESULT", "application/json")
+                .getWebResponse().getContentAsString());
+        assertEquals(1, page.getInt("matching"));
+        assertEquals("result.html", page.getJSONArray("results").getJSONObject(0).getString("resultFileName"));
+        page = JSONObject.fromObject(story.createWebClient()
+                .goTo(b.getUrl() + "seleniumhtmlreport/table?status=failed", "application/json")
+                .getWebResponse().getContentAsString());
+        assertEquals(0, page.getInt("matching"));
+    }
+
+    /**
+     * Reports in a workspace of the controller are transferred without
+     * serializing the parse request
+     */
+    @Test
+    public void testTransferOnBuiltInNode() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath workspace = story.jenkins.getWorkspaceFor(p);
+        assertFalse(workspace.isRemote());
+        workspace.child("reports/suite/result.html").copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: 'reports'])\n"
+                + "}", true));
+        WorkflowRun b = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+
+        assertEquals(1, b.getAction(SeleniumHtmlReportAction.class).getTimings().getTransferFiles());
+        File report = new File(b.getRootDir(), "seleniumReports/suite/result.html");
+        assertTrue(report.isFile());
+        assertEquals(new String(createSeleniumResultFile(), StandardCharsets.UTF_8),
+                new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reports on an agent are streamed back through a remoting pipe
+     */
+    @Test
+    public void testTransferFromAgent() throws Exception {
+        DumbSlave agent = story.createOnlineSlave(Label.get("remote"));
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath workspace = agent.getWorkspaceFor(p);
+        assertTrue(workspace.isRemote());
+        workspace.child("reports/suite/result.html").copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node('remote') {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: 'reports'])\n"
+                + "}", true));
+        WorkflowRun b = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+
+        assertEquals(1, b.getAction(SeleniumHtmlReportAction.class).getTimings().getTransferFiles());
+        assertEquals(42, b.getAction(SeleniumHtmlReportAction.class).getTotalTime());
+        assertTrue(new File(b.getRootDir(), "seleniumReports/suite/result.html").isFile());
+    }
+
+    /**
+     * Builds recorded without the totals compute and save them once
+     */
+    @Test
+    public void testSummaryMigration() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath testResults = story.jenkins.getWorkspaceFor(p).child("result.html");
+        testResults.copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.'])\n"
+                + "}", true));
+        WorkflowRun b = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        File buildXml = new File(b.getRootDir(), "build.xml");
+        String xml = new String(Files.readAllBytes(buildXml.toPath()), StandardCharsets.UTF_8);
+        assertThat(xml, containsString("<summary>"));
+        Files.write(buildXml.toPath(), xml.replaceAll("(?s)<summary>.*?</summary>", "").getBytes(StandardCharsets.UTF_8));
+
+        story.jenkins.reload();
+        b = story.jenkins.getItemByFullName("p", WorkflowJob.class).getBuildByNumber(1);
+        assertEquals(42, b.getAction(SeleniumHtmlReportAction.class).getTotalTime());
+        xml = new String(Files.readAllBytes(buildXml.toPath()), StandardCharsets.UTF_8);
+        assertThat(xml, containsString("<summary>"));
+    }
+
+    /**
+     * Serve a report file and a directory listing out of the per-build zip
+     * archive, with the Content-Security-Policy of loose reports
+     */
+    @Test
+    public void testArchivedReportIsServed() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath testResults = story.jenkins.getWorkspaceFor(p).child("result.html");
+        testResults.copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+        story.jenkins.getWorkspaceFor(p).child("suite/other.html").copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', archiveReports: true])\n"
+                + "}", true));
+        WorkflowRun b = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+
+        assertTrue(new File(b.getRootDir(), "seleniumReports.zip").isFile());
+        assertFalse(new File(b.getRootDir(), "seleniumReports").exists());
+        WebResponse response = story.createWebClient().goTo(b.getUrl() + "seleniumhtmlreport/result.html").getWebResponse();
+        assertThat(response.getContentAsString(), containsString("numCommandPasses:"));
+        assertThat(response.getResponseHeaderValue("Content-Security-Policy"), containsString("sandbox"));
+        String listing = story.createWebClient().goTo(b.getUrl() + "seleniumhtmlreport/suite/").getWebResponse().getContentAsString();
+        assertThat(listing, containsString("other.html"));
+    }
+
+    /**
+     * Report files are served with an entity tag and answer 304 once cached
+     */
+    @Test
+    public void testReportCaching() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath testResults = story.jenkins.getWorkspaceFor(p).child("result.html");
+        testResults.copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', archiveReports: true])\n"
+                + "}", true));
+        WorkflowRun b = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+
+        JenkinsRule.WebClient wc = story.createWebClient();
+        WebRequest request = new WebRequest(new URL(story.getURL(), b.getUrl() + "seleniumhtmlreport/result.html"));
+        request.setAdditionalHeader("Accept-Encoding", "gzip");
+        WebResponse response = wc.loadWebResponse(request);
+        assertEquals(200, response.getStatusCode());
+        assertThat(response.getContentAsString(), containsString("numCommandPasses:"));
+        assertThat(response.getResponseHeaderValue("Cache-Control"), containsString("no-cache"));
+        assertThat(response.getResponseHeaderValue("Cache-Control"), not(containsString("immutable")));
+        String etag = response.getResponseHeaderValue("ETag");
+        assertThat(etag, containsString("-gz"));
+        assertThat(response.getResponseHeaderValue("Content-Security-Policy"), containsString("sandbox"));
+
+        request.setAdditionalHeader("If-None-Match", etag);
+        assertEquals(304, wc.loadWebResponse(request).getStatusCode());
+        request.setAdditionalHeader("Accept-Encoding", "identity");
+        assertEquals(200, wc.loadWebResponse(request).getStatusCode());
+    }
+
+    /**
+     * Excluded files are neither stored nor parsed
+     */
+    @Test
+    public void testIncludesAndExcludes() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath ws = story.jenkins.getWorkspaceFor(p);
+        ws.child("result.html").copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+        ws.child("shots/failure.png").write("png", "UTF-8");
+        ws.child("coverage/index.html").write("<html></html>", "UTF-8");
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', excludes: '**/*.png, coverage/**'])\n"
+                + "}", true));
+        WorkflowRun b = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+
+        assertEquals(1, b.getAction(SeleniumHtmlReportAction.class).getResults().size());
+        assertTrue(new File(b.getRootDir(), "seleniumReports/result.html").isFile());
+        assertFalse(new File(b.getRootDir(), "seleniumReports/shots").exists());
+        assertFalse(new File(b.getRootDir(), "seleniumReports/coverage").exists());
+        assertFalse(new File(b.getRootDir(), "seleniumShards").exists());
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', includes: 'missing/**'])\n"
+                + "}", true));
+        b = story.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0));
+        story.assertLogContains("Missing selenium result files in directory .", b);
+        assertFalse(new File(b.getRootDir(), "seleniumReports").exists());
+        assertFalse(new File(b.getRootDir(), "seleniumShards").exists());
+    }
+
+    /**
+     * The first threshold exceeded by the results parsed so far stops parsing
+     * and sets the build result, the same files are kept whatever the order
+     * the parse threads finish in, and the incomplete results stay out of the
+     * job level stores
+     */
+    @Test
+    public void testFailFast() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath ws = story.jenkins.getWorkspaceFor(p);
+        String failed = new String(createSeleniumResultFile(), StandardCharsets.UTF_8)
+                .replace("numCommandErrors:</td>\n        <td>0</td>", "numCommandErrors:</td>\n        <td>1</td>");
+        for (int i = 0; i < 20; i++) {
+            ws.child("result" + i + ".html").write(failed, "UTF-8");
+        }
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', parallelism: 4, failFast: true, failedErrors: '5'])\n"
+                + "}", true));
+        WorkflowRun b = story.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0));
+
+        story.assertLogContains("Fail fast: threshold for FAILURE exceeded: command errors 6 > 5 at ", b);
+        List<TestResult> results = b.getAction(SeleniumHtmlReportAction.class).getResults();
+        assertEquals(6, results.size());
+        for (TestResult r : results) {
+            assertTrue(new File(b.getRootDir(), "seleniumReports/" + r.getResultFileName()).isFile());
+        }
+        assertTrue(SummaryIndex.read(p).isEmpty());
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', parallelism: 4, failFast: true, unstableErrors: '2', failedErrors: ''])\n"
+                + "}", true));
+        b = story.assertBuildStatus(Result.UNSTABLE, p.scheduleBuild2(0));
+        story.assertLogContains("Fail fast: threshold for UNSTABLE exceeded: command errors 3 > 2 at ", b);
+        assertEquals(3, b.getAction(SeleniumHtmlReportAction.class).getResults().size());
+
+        // not exceeded, so the complete results are checked as usual
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', parallelism: 4, failFast: true, failedErrors: '50'])\n"
+                + "}", true));
+        b = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        assertEquals(20, b.getAction(SeleniumHtmlReportAction.class).getResults().size());
+        assertEquals(1, SummaryIndex.read(p).size());
+        // a rebuilt suite index leaves out the incomplete results as well
+        assertTrue(new File(p.getBuildByNumber(1).getRootDir(), TestResultStore.INCOMPLETE_MARKER_NAME).isFile());
+        assertFalse(new File(b.getRootDir(), TestResultStore.INCOMPLETE_MARKER_NAME).exists());
+        assertEquals(1, SuiteIndex.scan(p).getOccurrences("result0.html").size());
+    }
+
+    /**
+     * Duration thresholds, absolute and against the previous build
+     */
+    @Test
+    public void testThresholds() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath testResults = story.jenkins.getWorkspaceFor(p).child("result.html");
+        testResults.copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', unstableDurationRegression: '10%'])\n"
+                + "}", true));
+        story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        testResults.write(new String(createSeleniumResultFile(), StandardCharsets.UTF_8)
+                .replace("totalTime:</td>\n        <td>42</td>", "totalTime:</td>\n        <td>50</td>"), "UTF-8");
+        WorkflowRun b = story.assertBuildStatus(Result.UNSTABLE, p.scheduleBuild2(0));
+        story.assertLogContains("Threshold for UNSTABLE exceeded: duration increase 8 > 10%", b);
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', failedDuration: '30'])\n"
+                + "}", true));
+        b = story.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0));
+        story.assertLogContains("Threshold for FAILURE exceeded: duration 50 > 30", b);
+    }
+
+    /**
+     * Only the raw reports of the newest builds are kept
+     */
+    @Test
+    public void testReportRetention() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath testResults = story.jenkins.getWorkspaceFor(p).child("result.html");
+        testResults.copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', keepReports: 1])\n"
+                + "}", true));
+        WorkflowRun b1 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        WorkflowRun b2 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        assertEquals(1, ReportRetention.load(p));
+
+        assertEquals(1, ReportRetention.purge(p, ReportRetention.load(p), TaskListener.NULL));
+        assertFalse(new File(b1.getRootDir(), "seleniumReports").exists());
+        assertTrue(new File(b2.getRootDir(), "seleniumReports/result.html").isFile());
+        SeleniumHtmlReportAction action = b1.getAction(SeleniumHtmlReportAction.class);
+        assertTrue(action.isReportsPurged());
+        assertEquals(42, action.getResults().get(0).getTotalTime());
+
+        JenkinsRule.WebClient wc = story.createWebClient();
+        wc.setThrowExceptionOnFailingStatusCode(false);
+        assertEquals(410, wc.goTo(b1.getUrl() + "seleniumhtmlreport/result.html").getWebResponse().getStatusCode());
+        assertEquals(0, ReportRetention.purge(p, 1, TaskListener.NULL));
+    }
+
+    /**
+     * Builds kept forever keep their reports, like their logs
+     */
+    @Test
+    public void testReportRetentionKeepsBuildsKeptForever() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath testResults = story.jenkins.getWorkspaceFor(p).child("result.html");
+        testResults.copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', keepReports: 1])\n"
+                + "}", true));
+        WorkflowRun b1 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        WorkflowRun b2 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        WorkflowRun b3 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        b1.keepLog(true);
+
+        assertEquals(1, ReportRetention.purge(p, 1, TaskListener.NULL));
+        assertTrue(new File(b1.getRootDir(), "seleniumReports/result.html").isFile());
+        assertFalse(b1.getAction(SeleniumHtmlReportAction.class).isReportsPurged());
+        assertFalse(new File(b2.getRootDir(), "seleniumReports").exists());
+        assertTrue(new File(b3.getRootDir(), "seleniumReports/result.html").isFile());
+
+        b1.keepLog(false);
+        assertEquals(1, ReportRetention.purge(p, 1, TaskListener.NULL));
+        assertFalse(new File(b1.getRootDir(), "seleniumReports").exists());
+    }
+
+    /**
+     * Identical report files of several builds are stored once
+     */
+    @Test
+    public void testDeduplicatedReports() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath testResults = story.jenkins.getWorkspaceFor(p).child("result.html");
+        testResults.copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', deduplicateReports: true])\n"
+                + "}", true));
+        WorkflowRun b1 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        WorkflowRun b2 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        story.assertLogContains("1 report files were already stored by earlier builds", b2);
+
+        assertTrue(new File(b2.getRootDir(), "seleniumReports.manifest").isFile());
+        assertFalse(new File(b2.getRootDir(), "seleniumReports").exists());
+        ReportManifest manifest = ReportManifest.read(new File(b2.getRootDir(), "seleniumReports.manifest"), BlobStore.getDir(p));
+        File blob = BlobStore.getBlobFile(BlobStore.getDir(p), manifest.getEntries().iterator().next().hash);
+        assertTrue(blob.isFile());
+
+        b1.delete();
+        assertTrue(blob.isFile());
+        WebResponse response = story.createWebClient().goTo(b2.getUrl() + "seleniumhtmlreport/result.html").getWebResponse();
+        assertThat(response.getContentAsString(), containsString("numCommandPasses:"));
+        assertThat(response.getResponseHeaderValue("Content-Security-Policy"), containsString("sandbox"));
+        assertThat(response.getResponseHeaderValue("Cache-Control"), containsString("immutable"));
+        b2.delete();
+        assertFalse(blob.isFile());
+    }
+
+    /**
+     * Thresholds are checked against the merged results of all shards
+     */
+    @Test
+    public void testShardThresholds() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath workspace = story.jenkins.getWorkspaceFor(p);
+        workspace.child("a/result.html").copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+        workspace.child("b/result.html").copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  parallel a: {\n"
+                + "    step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: 'a', unstableDuration: '60'])\n"
+                + "  }, b: {\n"
+                + "    step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: 'b', unstableDuration: '60'])\n"
+                + "  }\n"
+                + "}", true));
+        WorkflowRun b = story.assertBuildStatus(Result.UNSTABLE, p.scheduleBuild2(0));
+        story.assertLogContains("Threshold for UNSTABLE exceeded: duration 84 > 60", b);
+    }
+
+    /**
+     * Parallel branches publish into shards merged into one action
+     */
+    @Test
+    public void testParallelShards() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath workspace = story.jenkins.getWorkspaceFor(p);
+        workspace.child("a/result.html").copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+        workspace.child("b/result.html").copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  parallel a: {\n"
+                + "    step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: 'a'])\n"
+                + "  }, b: {\n"
+                + "    step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: 'b'])\n"
+                + "  }\n"
+                + "}", true));
+        WorkflowRun b = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+
+        assertEquals(1, b.getActions(SeleniumHtmlReportAction.class).size());
+        SeleniumHtmlReportAction action = b.getAction(SeleniumHtmlReportAction.class);
+        assertEquals(84, action.getTotalTime());
+        assertEquals(2, action.getResults().size());
+        assertEquals("shard-1/result.html", action.getResults().get(1).getResultFileName());
+        assertTrue(new File(b.getRootDir(), "seleniumShards/1/seleniumReports/result.html").isFile());
+        assertFalse(new File(b.getRootDir(), "seleniumShards/0").exists());
+        assertEquals(84, SummaryIndex.read(p).get(0).summary.getTotalTime());
+        // compacted to one line per build
+        assertTrue(SummaryIndex.compact(p));
+        assertEquals(1, Files.readAllLines(SummaryIndex.getFile(p).toPath()).size());
+        assertEquals(84, SummaryIndex.read(p).get(0).summary.getTotalTime());
+        assertFalse(SummaryIndex.compact(p));
+        String page = story.createWebClient().goTo(b.getUrl() + "seleniumhtmlreport/shard-1/result.html").getWebResponse().getContentAsString();
+        assertThat(page, containsString("numCommandPasses:"));
+    }
+
+    /**
+     * The builds of a result file are found through the index of the job
+     */
+    @Test
+    public void testSuiteIndex() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath testResults = story.jenkins.getWorkspaceFor(p).child("result.html");
+        testResults.copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.'])\n"
+                + "}", true));
+        story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        // the first publish finds no index and builds it in the background
+        while (SuiteIndex.read(p) == null) {
+            Thread.sleep(100);
+        }
+        WorkflowRun b2 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        assertEquals(2, SuiteIndex.read(p).getOccurrences("result.html").size());
+
+        JSONObject found = JSONObject.fromObject(story.createWebClient()
+                .goTo(p.getUrl() + "seleniumhtmlreport/find?suite=result.html&limit=1", "application/json")
+                .getWebResponse().getContentAsString());
+        assertEquals(2, found.getInt("runs"));
+        assertEquals(0, found.getInt("failures"));
+        assertEquals(1, found.getJSONArray("builds").size());
+        assertEquals(b2.getNumber(), found.getJSONArray("builds").getJSONObject(0).getInt("number"));
+
+        found = JSONObject.fromObject(story.createWebClient()
+                .goTo(p.getUrl() + "seleniumhtmlreport/find?suite=resu", "application/json")
+                .getWebResponse().getContentAsString());
+        assertEquals("result.html", found.getJSONArray("suites").getString(0));
+        story.createWebClient().goTo(p.getUrl() + "seleniumhtmlreport/history?suite=result.html");
+
+        // deleting a build removes it from the index
+        b2.delete();
+        assertEquals(1, SuiteIndex.read(p).getOccurrences("result.html").size());
+    }
+
+    /**
+     * The diff page lists the result files changed since the previous build
+     */
+    @Test
+    public void testDiff() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath ws = story.jenkins.getWorkspaceFor(p);
+        ws.child("stable.html").copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+        ws.child("result.html").copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.'])\n"
+                + "}", true));
+        WorkflowRun b1 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        ws.child("result.html").write(new String(createSeleniumResultFile(), StandardCharsets.UTF_8)
+                .replace("totalTime:</td>\n        <td>42</td>", "totalTime:</td>\n        <td>90</td>"), "UTF-8");
+        WorkflowRun b2 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+
+        SeleniumHtmlReportAction action = b2.getAction(SeleniumHtmlReportAction.class);
+        assertEquals(b1.getNumber(), action.getPreviousBuildNumber());
+        ReportDiff diff = action.getDiff(null, null);
+        assertEquals(1, diff.getRows().size());
+        assertEquals(ReportDiff.Change.SLOWER, diff.getRows().get(0).getChange());
+        assertEquals(48, diff.getRows().get(0).getDurationDelta());
+        assertEquals(0, action.getDiff(null, "").getRows().size());
+        String page = story.createWebClient().goTo(b2.getUrl() + "seleniumhtmlreport/diff").getWebResponse().getContentAsString();
+        assertThat(page, containsString("1 much slower"));
+    }
+
+    /**
+     * Unchanged result files are taken from the parse cache of the job
+     */
+    @Test
+    public void testParseCache() throws Exception {
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath testResults = story.jenkins.getWorkspaceFor(p).child("result.html");
+        testResults.copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', parseCache: true])\n"
+                + "}", true));
+        WorkflowRun b1 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        story.assertLogContains("Parse cache: 0 hits, 1 misses", b1);
+
+        testResults.renameTo(story.jenkins.getWorkspaceFor(p).child("copy.html"));
+        WorkflowRun b2 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        story.assertLogContains("Parse cache: 1 hits, 0 misses", b2);
+        TestResult result = b2.getAction(SeleniumHtmlReportAction.class).getResults().get(0);
+        assertEquals("copy.html", result.getResultFileName());
+        assertEquals(42, result.getTotalTime());
+    }
+
+    /**
+     * An agent looks up its result files in the parse cache on the controller
+     */
+    @Test
+    public void testParseCacheOnAgent() throws Exception {
+        DumbSlave agent = story.createOnlineSlave(Label.get("remote"));
+        WorkflowJob p = story.jenkins.createProject(WorkflowJob.class, "p");
+        FilePath workspace = agent.getWorkspaceFor(p);
+        FilePath testResults = workspace.child("result.html");
+        testResults.copyFrom(new ByteArrayInputStream(createSeleniumResultFile()));
+
+        p.setDefinition(new CpsFlowDefinition(""
+                + "node('remote') {\n"
+                + "  step([$class: 'SeleniumHtmlReportPublisher', testResultsDir: '.', parseCache: true])\n"
+                + "}", true));
+        WorkflowRun b1 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        story.assertLogContains("Parse cache: 0 hits, 1 misses", b1);
+
+        WorkflowRun b2 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        story.assertLogContains("Parse cache: 1 hits, 0 misses", b2);
+
+        testResults.renameTo(workspace.child("copy.html"));
+        WorkflowRun b3 = story.assertBuildStatusSuccess(p.scheduleBuild2(0));
+        story.assertLogContains("Parse cache: 1 hits, 0 misses", b3);
+        assertEquals("copy.html", b3.getAction(SeleniumHtmlReportAction.class).getResults().get(0).getResultFileName());
     }
 
     private byte[] createSeleniumResultFile() {
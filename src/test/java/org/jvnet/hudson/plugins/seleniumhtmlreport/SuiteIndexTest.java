@@ -0,0 +1,74 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SuiteIndexTest {
+
+    @Test
+    public void keepsBuildsNewestFirst() {
+        SuiteIndex index = new SuiteIndex();
+        for (int build = 1; build <= 300; build++) {
+            index = index.with(build * 7, Arrays.asList(result("login.html", build % 3 != 0)));
+        }
+        List<SuiteIndex.Occurrence> history = index.getOccurrences("login.html");
+        assertEquals(300, history.size());
+        assertEquals(2100, history.get(0).getBuildNumber());
+        assertTrue(history.get(0).isFailed());
+        assertEquals(7, history.get(299).getBuildNumber());
+        assertEquals(false, history.get(299).isFailed());
+    }
+
+    /**
+     * Builds finishing out of order and several publishes of one build.
+     */
+    @Test
+    public void addsOlderBuildsInPlace() {
+        SuiteIndex index = new SuiteIndex()
+                .with(10, Arrays.asList(result("a.html", true)))
+                .with(8, Arrays.asList(result("a.html", false), result("b.html", true)))
+                .with(9, Arrays.asList(result("a.html", true)))
+                .with(8, Arrays.asList(result("a.html", true)))
+                .with(9, Arrays.asList(result("a.html", false)));
+        assertEquals("10 passed, 9 failed, 8 failed", toString(index.getOccurrences("a.html")));
+        assertEquals("8 passed", toString(index.getOccurrences("b.html")));
+        assertEquals(0, index.getOccurrences("c.html").size());
+        assertEquals(Arrays.asList("a.html", "b.html"), index.findSuites(".HTML", 10));
+        assertEquals(Arrays.asList("b.html"), index.findSuites("b", 10));
+    }
+
+    /**
+     * Deleted builds leave the index, suites without any build left as well.
+     */
+    @Test
+    public void removesDeletedBuilds() {
+        SuiteIndex index = new SuiteIndex()
+                .with(3, Arrays.asList(result("a.html", true), result("b.html", false)))
+                .with(5, Arrays.asList(result("a.html", false)))
+                .with(8, Arrays.asList(result("a.html", true)));
+        index = index.without(5).without(3).without(4);
+        assertEquals("8 passed", toString(index.getOccurrences("a.html")));
+        assertEquals(0, index.getOccurrences("b.html").size());
+        assertEquals(1, index.getSuiteCount());
+    }
+
+    private static TestResult result(String name, boolean passed) {
+        return new TestResult(name, passed ? "passed" : "failed", 1, 1, passed ? 0 : 1, 1, passed ? 0 : 1, 0);
+    }
+
+    private static String toString(List<SuiteIndex.Occurrence> history) {
+        StringBuilder s = new StringBuilder();
+        for (SuiteIndex.Occurrence o : history) {
+            if (s.length() > 0) {
+                s.append(", ");
+            }
+            s.append(o.getBuildNumber()).append(o.isFailed() ? " failed" : " passed");
+        }
+        return s.toString();
+    }
+}
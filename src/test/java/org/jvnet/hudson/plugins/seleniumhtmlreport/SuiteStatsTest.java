@@ -0,0 +1,62 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SuiteStatsTest {
+
+    @Test
+    public void countsFlipsAndPassRate() {
+        SuiteStats.Suite suite = new SuiteStats.Suite("login.html");
+        boolean[] passed = {true, true, false, true, false, false};
+        for (int i = 0; i < passed.length; i++) {
+            suite.add(i + 1, passed[i], 10);
+        }
+        assertEquals(6, suite.getRuns());
+        assertEquals(3, suite.getPasses());
+        assertEquals(50, suite.getPassRate());
+        assertEquals(3, suite.getFlips());
+        assertFalse(suite.isLastPassed());
+        assertEquals(6, suite.getLastBuild());
+    }
+
+    /**
+     * Builds finishing out of order and several publishes of one build.
+     */
+    @Test
+    public void ordersRunsByBuildNumber() {
+        SuiteStats.Suite suite = new SuiteStats.Suite("login.html");
+        suite.add(1, true, 10);
+        suite.add(3, true, 10);
+        suite.add(2, false, 10);
+        assertEquals(3, suite.getRuns());
+        assertEquals(2, suite.getFlips());
+        assertTrue(suite.isLastPassed());
+        assertEquals(3, suite.getLastBuild());
+
+        suite.add(4, true, 10);
+        suite.add(4, false, 20);
+        suite.add(3, true, 10);
+        assertEquals(4, suite.getRuns());
+        assertEquals(2, suite.getPasses());
+        assertEquals(3, suite.getFlips());
+        assertFalse(suite.isLastPassed());
+        assertEquals(30, suite.getP90Duration());
+    }
+
+    @Test
+    public void durationsAverageAndPercentiles() {
+        SuiteStats.Suite suite = new SuiteStats.Suite("search.html");
+        for (int i = 1; i <= 100; i++) {
+            suite.add(i, true, i);
+        }
+        // only the last WINDOW durations count for the percentiles
+        assertEquals(75, suite.getP50Duration());
+        assertEquals(95, suite.getP90Duration());
+        assertEquals(96, suite.getAverageDuration());
+        assertEquals(128, suite.getSlowdownPercent());
+    }
+}
@@ -0,0 +1,57 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Aggregation over the results of one build.
+ */
+@State(Scope.Benchmark)
+public class SummaryBenchmark {
+
+    @Param("5000")
+    public int results;
+
+    private List<TestResult> list;
+    private SeleniumHtmlReportAction action;
+
+    @Setup
+    public void setUp() {
+        this.list = new ArrayList<TestResult>(this.results);
+        for (int i = 0; i < this.results; i++) {
+            this.list.add(new TestResult("suite/TestSuite-" + i + ".html", i % 10 == 0 ? "failed" : "passed",
+                    i % 60, 1, i % 10 == 0 ? 1 : 0, 50, i % 10 == 0 ? 1 : 0, 0));
+        }
+        this.action = new SeleniumHtmlReportAction(this.list, new File("seleniumReports"));
+    }
+
+    /**
+     * All sum getters, as called when rendering the report page.
+     */
+    @Benchmark
+    public void sumGetters(Blackhole bh) {
+        bh.consume(this.action.getSumTestTotal());
+        bh.consume(this.action.getSumTestPasses());
+        bh.consume(this.action.getSumTestFailures());
+        bh.consume(this.action.getSumCommandPasses());
+        bh.consume(this.action.getSumCommandFailures());
+        bh.consume(this.action.getSumCommandErrors());
+        bh.consume(this.action.getTotalTime());
+    }
+
+    /**
+     * Computing the summary, done once per publish.
+     */
+    @Benchmark
+    public ReportSummary aggregate() {
+        return ReportSummary.of(this.list);
+    }
+}
@@ -0,0 +1,47 @@
+package org.jvnet.hudson.plugins.seleniumhtmlreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ThresholdTest {
+
+    @Test
+    public void absolute() {
+        Threshold t = Threshold.parse(" 5 ");
+        assertFalse(t.isPercentage());
+        assertFalse(t.isExceededBy(5, 100));
+        assertTrue(t.isExceededBy(6, 100));
+        assertTrue(Threshold.parse("0").isExceededBy(1, 0));
+        assertEquals("5", t.toString());
+    }
+
+    @Test
+    public void percentage() {
+        Threshold t = Threshold.parse("12.5%");
+        assertTrue(t.isPercentage());
+        assertFalse(t.isExceededBy(1, 8));
+        assertTrue(t.isExceededBy(2, 8));
+        assertFalse(t.isExceededBy(5, 0));
+        assertEquals("12.5%", t.toString());
+    }
+
+    @Test
+    public void blankIsDisabled() {
+        assertNull(Threshold.parse(null));
+        assertNull(Threshold.parse("  "));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegative() {
+        Threshold.parse("-1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGarbage() {
+        Threshold.parse("ten%");
+    }
+}